@@ -3,13 +3,17 @@ package com.redmart.skiinginsingapore;
 import android.app.Activity;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.view.inputmethod.InputMethodManager;
@@ -19,56 +23,41 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.redmart.skiinginsingapore.engine.ElevationHistogram;
+import com.redmart.skiinginsingapore.engine.ElevationOrder;
+import com.redmart.skiinginsingapore.engine.Grid;
+import com.redmart.skiinginsingapore.engine.MapParser;
+import com.redmart.skiinginsingapore.engine.MapPipeline;
+import com.redmart.skiinginsingapore.engine.MappedGrid;
+import com.redmart.skiinginsingapore.engine.Metrics;
+import com.redmart.skiinginsingapore.engine.PackedGrid;
+import com.redmart.skiinginsingapore.engine.ParallelSkiSolver;
+import com.redmart.skiinginsingapore.engine.Result;
+import com.redmart.skiinginsingapore.engine.ResultCache;
+import com.redmart.skiinginsingapore.engine.SkiFormat;
+import com.redmart.skiinginsingapore.engine.SkiSolver;
+import com.redmart.skiinginsingapore.engine.SolverWorkspace;
 import com.redmart.skiinginsingapore.util.AsyncHttpURLConnection;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity {
 
-    private final static int recordFilter = 3;
-
-    private class Result {
-        public int length;
-        public final int droppingFrom;
-        public final int droppingTo;
-        public final Coords startCoords;
-        public List<Step> path;
-
-        public Result(final int length, final int droppingFrom, final int droppingTo,
-                      final Coords startCoords, List<Step> path) {
-            this.length = length;
-            this.droppingFrom = droppingFrom;
-            this.startCoords = startCoords;
-            this.path = path;
-            this.droppingTo = droppingTo;
-        }
-    }
-
-    private class Step {
-        public final int value;
-        public final Coords coords;
-
-        public Step(int value, Coords coords) {
-            this.value = value;
-            this.coords = coords;
-        }
-    }
-
-    private class Coords {
-        public final int x;
-        public final int y;
-
-        public Coords(int x, int y) {
-            this.x = x;
-            this.y = y;
-        }
-    }
+    private final static String TAG = "MainActivity";
+    private final static long PROGRESS_INTERVAL_MS = 200;
+    private final static long RESULT_CACHE_BYTES = 16 * 1024 * 1024;
+    // Past this the best run found so far is shown, flagged as not final.
+    private final static long SEARCH_BUDGET_MS = 60 * 1000;
+    // Large maps come over this many connections where the server takes ranges.
+    private final static int MAP_SEGMENTS = 4;
 
     private interface Updater {
         public void postUpdate(String message);
@@ -80,12 +69,27 @@ public class MainActivity extends AppCompatActivity {
     private ProgressBar progressBarLoading;
     private TextView textStatus;
     private EditText uriToMap;
-    private Integer[][] allMap;
+    private Grid allMap;
+    private String mapKey;
+    private ElevationHistogram mapHistogram;
     private AsyncHttpURLConnection httpConnection;
     private Result maxResult;
-    private List<Coords> sortedCoords;
+    private int[] sortedCells;
     private BackgroundExecution backgroundTask;
     private Updater onThread;
+    private long startTime;
+    private ForkJoinPool searchPool;
+    private volatile SkiSolver activeSolver;
+    private Grid.Factory gridFactory;
+    // Kept from run to run, null where the search state lives in mapped files.
+    private SolverWorkspace workspace;
+    private ResultCache resultCache;
+    private Metrics metrics;
+    private Metrics.Timer fetchTimer;
+    private Handler progressHandler;
+    private volatile int progressStage;
+    private volatile int parsedRows;
+    private volatile int mapRows;
 
 
 
@@ -96,6 +100,8 @@ public class MainActivity extends AppCompatActivity {
 
         getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_ALWAYS_HIDDEN);
         checkSuitableness();
+        resultCache = new ResultCache(new File(getCacheDir(), "results"), RESULT_CACHE_BYTES);
+        progressHandler = new Handler(Looper.getMainLooper());
         initDefaults();
         initUI();
     }
@@ -111,18 +117,33 @@ public class MainActivity extends AppCompatActivity {
         Runtime rt = Runtime.getRuntime();
         long maxMemory = rt.maxMemory();
         maxMemory = (maxMemory/1024)/1024;
-        if(maxMemory < 128)
-            showDialog(getResources().getString(R.string.error_title),
-                    getResources().getString(R.string.error), false);
+        // Small heaps keep the map and the search state in files mapped from the cache.
+        if(maxMemory < 128) {
+            gridFactory = MappedGrid.factory(getCacheDir());
+        } else {
+            gridFactory = PackedGrid.FACTORY;
+            workspace = new SolverWorkspace();
+        }
     }
 
     private void initDefaults() {
         backgroundTask = null;
         allMap = null;
+        mapKey = null;
+        mapHistogram = null;
         httpConnection = null;
-        maxResult = new Result(0, 0, 0, null, null);
-        sortedCoords = null;
+        maxResult = null;
+        sortedCells = null;
         onThread = null;
+        metrics = new Metrics(new Metrics.CpuClock() {
+            @Override
+            public long threadCpuNanos() {
+                return Debug.threadCpuTimeNanos();
+            }
+        });
+        fetchTimer = null;
+        parsedRows = 0;
+        mapRows = 0;
     }
 
     private void initUI() {
@@ -165,6 +186,22 @@ public class MainActivity extends AppCompatActivity {
             httpConnection.close();
         if(backgroundTask != null && backgroundTask.getStatus() == AsyncTask.Status.RUNNING)
             backgroundTask.cancel(true);
+        // Interrupting the task only reaches a sequential search, a parallel one needs this.
+        final SkiSolver solver = activeSolver;
+        if(solver != null)
+            solver.cancel();
+        if(searchPool != null)
+            searchPool.shutdownNow();
+        stopProgress();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Only between runs, the next one allocates the buffers again.
+        if(workspace != null && level >= TRIM_MEMORY_RUNNING_LOW && (backgroundTask == null ||
+                backgroundTask.getStatus() != AsyncTask.Status.RUNNING))
+            workspace.release();
     }
 
     @Override
@@ -174,35 +211,72 @@ public class MainActivity extends AppCompatActivity {
         System.exit(0);
     }
 
-    protected void loadMap(String mapData) {
-        mapData = mapData.replace("\r", "");
-        String[] rows = mapData.split("\n");
-        String[] size = rows[0].split(" ");
-        allMap = new Integer[Integer.parseInt(size[0])][Integer.parseInt(size[1])];
-        sortedCoords = new LinkedList<>();
-        final double percent = ((double)(rows.length) / 100);
-        final int step = (int) Math.round(percent * recordFilter);
-
-        for(int x = 1; x < rows.length; x++)
-        {
-            String[] cols = rows[x].split(" ");
-            if(step == 0 || x % step == 0 || x == 1 || x == rows.length-1)
-                statusMessage(getResources().getString(R.string.map_loading) + " " +
-                        Math.round((double)x / percent) + "% complete");
-            for(int y = 0; y < cols.length; y++) {
-                allMap[x-1][y] = Integer.parseInt(cols[y]);
-                sortedCoords.add(new Coords(x-1, y));
-            }
+    protected void loadMap(InputStream mapData) throws IOException {
+        Metrics.Timer timer = metrics.start(Metrics.Phase.PARSE);
+        mapData = new BufferedInputStream(metrics.count(mapData));
+        if(SkiFormat.isSkiFormat(mapData)) {
+            allMap = SkiFormat.read(mapData, gridFactory);
+            timer.stop();
+            return;
         }
+        // The cache key and the sorting counts are worked out while the rest still downloads.
+        MapPipeline pipeline = MapPipeline.parse(mapData, gridFactory, new MapParser.RowListener() {
+            @Override
+            public void onRowParsed(Grid grid, int x) {
+                mapRows = grid.getRows();
+                parsedRows = x + 1;
+            }
+        });
+        allMap = pipeline.getGrid();
+        mapKey = pipeline.getKey();
+        mapHistogram = pipeline.getHistogram();
+        timer.stop();
     }
 
     protected void sortCoords() {
-        Collections.sort(sortedCoords, new Comparator<Coords>() {
-            @Override
-            public int compare(Coords lhs, Coords rhs) {
-                return allMap[rhs.x][rhs.y].compareTo(allMap[lhs.x][lhs.y]);
+        Metrics.Timer timer = metrics.start(Metrics.Phase.ORDER);
+        if(workspace != null)
+            sortedCells = ElevationOrder.descending(allMap, (mapHistogram != null) ?
+                    mapHistogram : ElevationHistogram.of(allMap), workspace);
+        else if(mapHistogram != null)
+            sortedCells = ElevationOrder.descending(allMap, mapHistogram);
+        else
+            sortedCells = ElevationOrder.descending(allMap);
+        mapHistogram = null;
+        timer.stop();
+    }
+
+    // The progress line is sampled from the metrics on a timer, the loops themselves only count.
+    private Runnable progressSampler = new Runnable() {
+        @Override
+        public void run() {
+            if(progressStage == 0)
+                return;
+            String message = null;
+            if(progressStage == R.string.map_loading && mapRows > 0) {
+                message = getResources().getString(R.string.map_loading) + " " +
+                        Math.round(100.0 * parsedRows / mapRows) + "% complete";
+            } else if(progressStage == R.string.searching && allMap != null &&
+                    allMap.size() > 0) {
+                message = getResources().getString(R.string.searching) + " " +
+                        Math.round(100.0 * metrics.getCellsVisited() / allMap.size()) +
+                        "% complete";
             }
-        });
+            if(message != null)
+                textStatus.setText(message);
+            progressHandler.postDelayed(this, PROGRESS_INTERVAL_MS);
+        }
+    };
+
+    protected void startProgress(int stage) {
+        progressStage = stage;
+        progressHandler.removeCallbacks(progressSampler);
+        progressHandler.postDelayed(progressSampler, PROGRESS_INTERVAL_MS);
+    }
+
+    protected void stopProgress() {
+        progressStage = 0;
+        progressHandler.removeCallbacks(progressSampler);
     }
 
 
@@ -213,119 +287,68 @@ public class MainActivity extends AppCompatActivity {
         return netInfo != null && netInfo.isConnectedOrConnecting();
     }
 
-    protected Result max(Result r1, Result r2, int increment) {
-        if((r1.length == r2.length + increment &&
-                (r1.droppingFrom - r1.droppingTo) < (r2.droppingFrom - r2.droppingTo)) ||
-                r1.length < r2.length + increment) {
-            r2.length += increment;
-            return r2;
-        }
-        else
-            return r1;
+    protected boolean isParallelSearch() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP &&
+                Runtime.getRuntime().availableProcessors() > 1;
     }
 
-    protected boolean coorectNextStep(final int x, final int y, final Step step){
-        if((Math.abs(x - step.coords.x) == 0 && Math.abs(y - step.coords.y) == 1 ||
-                Math.abs(x - step.coords.x) == 1 && Math.abs(y - step.coords.y) == 0) &&
-                step.value > allMap[x][y])
-            return true;
-        return false;
-    }
-
-    protected void trackPath(final int x, final int y, Result result) {
-        int droppingTo = allMap[x][y];
-        for(int i = result.path.size()-1; i >= 0; i--) {
-            Step step = result.path.get(i);
-            if (coorectNextStep(x, y, step)) {
-                if(i < result.path.size()-1) {
-                    List<Step> list_p = new ArrayList<Step>();
-                    list_p.addAll(result.path);
-                    for(int j = result.path.size()-1; j > i; j--)
-                        list_p.remove(j);
-                    result.path = list_p;
-                }
-                result.path.add(new Step(droppingTo, new Coords(x, y)));
-                break;
-            }
+    protected void search() throws IOException {
+        final Metrics.Timer timer = metrics.start(Metrics.Phase.SOLVE);
+        final SkiSolver solver;
+        if(isParallelSearch()) {
+            if(searchPool == null)
+                searchPool = new ForkJoinPool();
+            solver = new ParallelSkiSolver(allMap, searchPool, workspace);
+        } else {
+            solver = new SkiSolver(allMap, workspace);
         }
-    }
-
-    protected Result findLongestPath(final int x, final int y, final int droppingFrom,
-                                     Coords startCoodrs, List<Step> path) {
-        Result result = new Result(1, droppingFrom, allMap[x][y], startCoodrs, path);
-        trackPath(x, y, result);
-
-        if(y < allMap[x].length-1 && allMap[x][y] > allMap[x][y+1])
-            result = max(result, findLongestPath(x, y+1, droppingFrom, startCoodrs, result.path), 1);
-        if(y > 0 && allMap[x][y] > allMap[x][y-1])
-            result = max(result, findLongestPath(x, y-1, droppingFrom, startCoodrs, result.path), 1);
-        if(x < allMap.length-1 && allMap[x][y] > allMap[x+1][y])
-            result = max(result, findLongestPath(x+1, y, droppingFrom, startCoodrs, result.path), 1);
-        if(x > 0 && allMap[x][y] > allMap[x-1][y])
-            result = max(result, findLongestPath(x-1, y, droppingFrom, startCoodrs, result.path), 1);
-
-        maxResult = max(maxResult,result, 0);
-        return result;
-    }
-
-    protected void search() {
-        final int length =  sortedCoords.size()-1;
-        final double percent = ((double)(length+1) / 100);
-        final int step = (int) Math.round(percent * recordFilter);
-        Iterator<Coords> i_coords = sortedCoords.iterator();
-        int count = 0;
-
-        while(i_coords.hasNext()) {
-            Coords coords = i_coords.next();
-            List<Step> path = new ArrayList<>();
-            path.add(new Step(allMap[coords.x][coords.y], new Coords(coords.x, coords.y)));
-            if(step == 0 || count % step == 0 || count == 0 || count == length)
-                statusMessage(getResources().getString(R.string.searching) + " " +
-                        Math.round((double)count / percent) + "% complete");
-            Result r = findLongestPath(coords.x, coords.y, allMap[coords.x][coords.y],
-                    new Coords(coords.x, coords.y), path);
-            if(r.length >= r.droppingFrom || maxResult.length >= r.droppingFrom)
-                break;
-            count++;
+        solver.setMetrics(metrics);
+        solver.setDeadline(SEARCH_BUDGET_MS, TimeUnit.MILLISECONDS);
+        activeSolver = solver;
+        try {
+            // The solve tracks the path as part of it, timed by the solver as RECONSTRUCT.
+            maxResult = solver.solve(sortedCells, allMap.size());
+        } finally {
+            activeSolver = null;
+            // The result holds its path, the layers can go: on small heaps they are cache files.
+            solver.close();
+            timer.stop();
         }
     }
 
     protected void showResult(long executionTime) {
-        int drop = (maxResult.droppingFrom - maxResult.droppingTo);
+        int drop = maxResult.getDrop();
         String message = getResources().getString(R.string.success);
-        String path = "";
 
-        for(Step box : maxResult.path)
-            path += box.value + "->";
         DecimalFormat decimalFormat = new DecimalFormat();
         decimalFormat.setDecimalSeparatorAlwaysShown(false);
         message = String.format(message, decimalFormat.format(((double)executionTime/1000.00)), drop,
-                maxResult.droppingFrom, maxResult.startCoords.x, maxResult.startCoords.y,
+                maxResult.droppingFrom, maxResult.startX, maxResult.startY,
                 maxResult.droppingTo, maxResult.length);
-        if(path.length() > 2 && maxResult.path.size() > 1) {
-            path = path.substring(0, path.length() - 2);
-            message += String.format(getResources().getString(R.string.path), path);
+        if(maxResult.provisional)
+            message += getResources().getString(R.string.provisional);
+        if(maxResult.path.length > 1) {
+            StringWriter path = new StringWriter();
+            try {
+                maxResult.writePath(path, "->");
+            } catch(IOException e) {
+                // StringWriter doesn't throw.
+            }
+            message += String.format(getResources().getString(R.string.path), path.toString());
         }
 
-        showDialog(getResources().getString(R.string.success_title), message, true);
+        showDialog(getResources().getString(R.string.success_title), message);
     }
 
-    protected void showDialog(final String title, final String message, final boolean reload) {
+    protected void showDialog(final String title, final String message) {
         AlertDialog alertDialog = new AlertDialog.Builder(MainActivity.this).create();
         alertDialog.setTitle(title);
         alertDialog.setMessage(message);
         alertDialog.setButton(AlertDialog.BUTTON_NEUTRAL, "OK",
                 new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int which) {
+                        // The next map is solved in this process, on the same workspace.
                         dialog.dismiss();
-                        if(reload) {
-                            Intent i = getBaseContext().getPackageManager()
-                                    .getLaunchIntentForPackage(getBaseContext().getPackageName());
-                            i.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-                            startActivity(i);
-                        }
-                        finish();
-                        System.exit(0);
                     }
                 });
         alertDialog.setCancelable(false);
@@ -349,10 +372,45 @@ public class MainActivity extends AppCompatActivity {
             statusMessage(getResources().getString(R.string.data));
             httpConnection = new AsyncHttpURLConnection("GET", uriToMap.getText().toString(), "",
                     HttpEvents);
+            httpConnection.setResponseReader(MapReader);
+            httpConnection.setCacheDirectory(new File(getCacheDir(), "maps"));
+            httpConnection.setSegments(MAP_SEGMENTS);
+            fetchTimer = metrics.start(Metrics.Phase.FETCH);
             httpConnection.submit();
         }
     };
 
+    private AsyncHttpURLConnection.ResponseReader MapReader = new AsyncHttpURLConnection.ResponseReader() {
+
+        @Override
+        public void readResponse(InputStream response) throws IOException {
+            fetchTimer.stop();
+            onThread = uiUpdater;
+            try {
+                startTime = System.currentTimeMillis();
+                statusMessage(getResources().getString(R.string.map_loading));
+                startProgress(R.string.map_loading);
+                loadMap(response);
+            } finally {
+                stopProgress();
+                onThread = null;
+            }
+        }
+    };
+
+    private Updater uiUpdater = new Updater() {
+
+        @Override
+        public void postUpdate(final String message) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    textStatus.setText(message);
+                }
+            });
+        }
+    };
+
     private AsyncHttpURLConnection.AsyncHttpEvents HttpEvents = new AsyncHttpURLConnection.AsyncHttpEvents() {
 
         @Override
@@ -362,6 +420,7 @@ public class MainActivity extends AppCompatActivity {
                 public void run() {
                     Toast.makeText(getApplicationContext(), errorMessage,
                             Toast.LENGTH_LONG).show();
+                    stopProgress();
                     statusMessage("");
                     unlockUI(true);
                 }
@@ -373,18 +432,15 @@ public class MainActivity extends AppCompatActivity {
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    initDefaults();
+                    httpConnection = null;
                     backgroundTask = new BackgroundExecution();
-                    backgroundTask.execute(response);
+                    backgroundTask.execute();
                 }
             });
         }
     };
 
-    private class BackgroundExecution extends AsyncTask<String, String, Boolean> {
-
-        private long startTime;
-
+    private class BackgroundExecution extends AsyncTask<Void, String, Boolean> {
 
         private Updater updater =  new Updater() {
 
@@ -395,17 +451,32 @@ public class MainActivity extends AppCompatActivity {
         };
 
         @Override
-        protected Boolean doInBackground(String... params) {
+        protected Boolean doInBackground(Void... params) {
             onThread = updater;
 
             try {
-                startTime =  System.currentTimeMillis();
-                statusMessage(getResources().getString(R.string.map_loading));
-                loadMap(params[0]);
+                if(mapKey == null)
+                    mapKey = ResultCache.key(allMap);
+                maxResult = resultCache.get(mapKey, allMap.size());
+                if(maxResult != null)
+                    return true;
+
                 statusMessage(getResources().getString(R.string.sorting));
                 sortCoords();
                 statusMessage(getResources().getString(R.string.searching));
+                startProgress(R.string.searching);
                 search();
+                stopProgress();
+                if(!maxResult.provisional) {
+                    try {
+                        resultCache.put(mapKey, maxResult);
+                    } catch(IOException e) {
+                        // The result is still good, it just won't be remembered.
+                    }
+                }
+            } catch(CancellationException e) {
+                // The activity is going away, there's no one left to tell.
+                return false;
             } catch(final Exception e) {
                 runOnUiThread(new Runnable() {
                     @Override
@@ -423,13 +494,16 @@ public class MainActivity extends AppCompatActivity {
         @Override
         protected void onPostExecute(Boolean result) {
             onThread = null;
+            stopProgress();
+            Log.i(TAG, "Run metrics " + metrics.snapshot().toJson());
 
             if(result)
                 showResult(System.currentTimeMillis() - startTime);
             else
                 statusMessage(getResources().getString(R.string.fail));
-            if(sortedCoords != null)
-                sortedCoords.clear();
+            sortedCells = null;
+            if(allMap instanceof MappedGrid)
+                ((MappedGrid) allMap).close();
             unlockUI(true);
             statusMessage("");
         }
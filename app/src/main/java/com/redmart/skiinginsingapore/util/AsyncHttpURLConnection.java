@@ -3,24 +3,45 @@ package com.redmart.skiinginsingapore.util;
 /**
  * Created by archie on 15/1/16.
  */
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Asynchronous http requests implementation.
  */
 public class AsyncHttpURLConnection {
     private static final int HTTP_TIMEOUT_MS = 8000;
+    private static final int HTTP_THREADS = 4;
+    private static final int HTTP_QUEUE = 32;
+    private static final ThreadPoolExecutor executor = createExecutor();
     private final String method;
     private final String url;
     private final String message;
     private final AsyncHttpEvents events;
     private String contentType;
+    private ResponseReader responseReader;
+    private int timeoutMs;
+    private int segments = 1;
+    private File cacheDirectory;
     private boolean closed;
 
     /**
@@ -31,26 +52,89 @@ public class AsyncHttpURLConnection {
         public void onHttpComplete(String response);
     }
 
+    /**
+     * Consumes the response body straight from the connection, on the request thread.
+     */
+    public interface ResponseReader {
+        public void readResponse(InputStream response) throws IOException;
+    }
+
     public AsyncHttpURLConnection(String method, String url, String message,
                                   AsyncHttpEvents events) {
         this.method = method;
         this.url = url;
         this.message = message;
         this.events = events;
+        timeoutMs = HTTP_TIMEOUT_MS;
         closed = false;
     }
 
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(HTTP_THREADS, HTTP_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(HTTP_QUEUE),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AsyncHttpURLConnection");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     public void setContentType(String contentType) {
         this.contentType = contentType;
     }
 
+    /**
+     * Hands the response body to the reader instead of draining it into a String,
+     * onHttpComplete() then gets a null response.
+     */
+    public void setResponseReader(ResponseReader responseReader) {
+        this.responseReader = responseReader;
+    }
+
+    /**
+     * Connect and read timeout, 8 seconds unless set.
+     */
+    public void setTimeout(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Keeps the last body of each GET url in the directory and revalidates it with
+     * If-None-Match / If-Modified-Since, an unchanged body is then served from disk.
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Fetches GET bodies as this many byte ranges at once, for large maps on slow links. Only
+     * when the server takes ranges and the body is at least a megabyte a range, otherwise, or
+     * with 1 (the default), the body comes over a single connection.
+     */
+    public void setSegments(int segments) {
+        if (segments < 1)
+            throw new IllegalArgumentException("Need at least one segment");
+        this.segments = segments;
+    }
+
     public void submit() {
         Runnable runHttp = new Runnable() {
             public void run() {
                 sendHttpMessage();
             }
         };
-        (new Thread(runHttp)).start();
+        try {
+            executor.execute(runHttp);
+        } catch (RejectedExecutionException e) {
+            if(!closed)
+                events.onHttpError("Too many pending requests, HTTP " + method + " to "
+                        + url + " dropped");
+        }
     }
 
     private void sendHttpMessage() {
@@ -64,8 +148,9 @@ public class AsyncHttpURLConnection {
             connection.setRequestMethod(method);
             connection.setUseCaches(false);
             connection.setDoInput(true);
-            connection.setConnectTimeout(HTTP_TIMEOUT_MS);
-            connection.setReadTimeout(HTTP_TIMEOUT_MS);
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
             boolean doOutput = false;
             if (method.equals("POST")) {
                 doOutput = true;
@@ -78,6 +163,31 @@ public class AsyncHttpURLConnection {
                 connection.setRequestProperty("Content-Type", contentType);
             }
 
+            File cachedBody = null;
+            Properties validators = null;
+            if (cacheDirectory != null && method.equals("GET")) {
+                cachedBody = new File(cacheDirectory, cacheName(url));
+                validators = readValidators(cachedBody);
+                if (validators != null) {
+                    if (validators.getProperty("ETag") != null)
+                        connection.setRequestProperty("If-None-Match",
+                                validators.getProperty("ETag"));
+                    if (validators.getProperty("Last-Modified") != null)
+                        connection.setRequestProperty("If-Modified-Since",
+                                validators.getProperty("Last-Modified"));
+                }
+            }
+
+            if (segments > 1 && method.equals("GET")) {
+                SegmentedDownload download = SegmentedDownload.probe(url, segments, timeoutMs);
+                if (download != null) {
+                    String response = readSegmented(download, cachedBody, validators);
+                    if(!closed)
+                        events.onHttpComplete(response);
+                    return;
+                }
+            }
+
             // Send POST request.
             if (doOutput && postData.length > 0) {
                 OutputStream outStream = connection.getOutputStream();
@@ -87,17 +197,28 @@ public class AsyncHttpURLConnection {
 
             // Get response.
             int responseCode = connection.getResponseCode();
-            if (responseCode != 200) {
+            String response;
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+                connection.disconnect();
+                response = readBody(new FileInputStream(cachedBody));
+            } else if (responseCode != 200) {
                 if(!closed)
                     events.onHttpError("Non-200 response to " + method + " to URL: "
                         + url + " : " + connection.getHeaderField(null));
                 connection.disconnect();
                 return;
+            } else {
+                InputStream responseStream = connection.getInputStream();
+                if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+                    responseStream = new GZIPInputStream(responseStream);
+                if (cachedBody != null)
+                    response = readAndKeepBody(connection, responseStream, cachedBody,
+                            connection.getHeaderField("ETag"),
+                            connection.getHeaderField("Last-Modified"));
+                else
+                    response = readBody(responseStream);
+                connection.disconnect();
             }
-            InputStream responseStream = connection.getInputStream();
-            String response = drainStream(responseStream);
-            responseStream.close();
-            connection.disconnect();
             if(!closed)
                 events.onHttpComplete(response);
         } catch (SocketTimeoutException e) {
@@ -110,6 +231,163 @@ public class AsyncHttpURLConnection {
         }
     }
 
+    // Reads and closes the body, through the response reader when there is one.
+    private String readBody(InputStream body) throws IOException {
+        try {
+            if (responseReader != null) {
+                responseReader.readResponse(body);
+                return null;
+            }
+            return drainStream(body);
+        } finally {
+            body.close();
+        }
+    }
+
+    // Reads the body while copying it next to the cache entry, the copy replaces the entry only
+    // once the whole body made it to disk. Every request copies to a file of its own, two for
+    // the same URL at once would tear a shared one.
+    private String readAndKeepBody(HttpURLConnection connection, InputStream body,
+                                   File cachedBody, String eTag, String lastModified)
+            throws IOException {
+        if (eTag == null && lastModified == null)
+            return readBody(body);
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs())
+            return readBody(body);
+
+        File copy = File.createTempFile(cachedBody.getName(), ".tmp", cacheDirectory);
+        final OutputStream out = new FileOutputStream(copy);
+        boolean complete = false;
+        try {
+            final InputStream tee = new FilterInputStream(body) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0)
+                        out.write(b);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0)
+                        out.write(buffer, offset, read);
+                    return read;
+                }
+            };
+            String response = null;
+            try {
+                if (responseReader != null) {
+                    responseReader.readResponse(tee);
+                    // The rest of the body still has to reach the copy.
+                    byte[] rest = new byte[8192];
+                    while (tee.read(rest, 0, rest.length) >= 0) {
+                    }
+                } else {
+                    response = drainStream(tee);
+                }
+                complete = true;
+            } finally {
+                // A reader that gave up, e.g. on a malformed map, doesn't wait for the rest.
+                if (complete)
+                    tee.close();
+                else
+                    connection.disconnect();
+            }
+            return response;
+        } finally {
+            out.close();
+            if (complete && (!cachedBody.exists() || cachedBody.delete()) &&
+                    copy.renameTo(cachedBody))
+                writeValidators(cachedBody, eTag, lastModified);
+            else
+                copy.delete();
+        }
+    }
+
+    // Reads the body as it comes in over the download's ranges, the kept copy is used instead
+    // when it is still the same body.
+    private String readSegmented(SegmentedDownload download, File cachedBody,
+                                 Properties validators) throws IOException {
+        if (validators != null && download.isUnchanged(validators))
+            return readBody(new FileInputStream(cachedBody));
+
+        final boolean keep = cachedBody != null &&
+                (download.getETag() != null || download.getLastModified() != null) &&
+                (cacheDirectory.isDirectory() || cacheDirectory.mkdirs());
+        File copy = keep ? File.createTempFile(cachedBody.getName(), ".tmp", cacheDirectory) :
+                File.createTempFile("map", ".part");
+        try {
+            InputStream body = download.start(copy, keep, executor);
+            String response = null;
+            boolean read = false;
+            try {
+                if (responseReader != null)
+                    responseReader.readResponse(body);
+                else
+                    response = drainStream(body);
+                read = true;
+            } finally {
+                // A reader that gave up doesn't wait for the rest.
+                if (!read)
+                    download.abort();
+                body.close();
+            }
+            if (keep && download.isComplete() && (!cachedBody.exists() || cachedBody.delete()) &&
+                    copy.renameTo(cachedBody))
+                writeValidators(cachedBody, download.getETag(), download.getLastModified());
+            return response;
+        } finally {
+            copy.delete();
+        }
+    }
+
+    private static Properties readValidators(File cachedBody) {
+        File file = new File(cachedBody.getPath() + ".headers");
+        if (!cachedBody.isFile() || !file.isFile())
+            return null;
+        Properties validators = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                validators.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return validators;
+    }
+
+    private static void writeValidators(File cachedBody, String eTag, String lastModified)
+            throws IOException {
+        Properties validators = new Properties();
+        if (eTag != null)
+            validators.setProperty("ETag", eTag);
+        if (lastModified != null)
+            validators.setProperty("Last-Modified", lastModified);
+        OutputStream out = new FileOutputStream(cachedBody.getPath() + ".headers");
+        try {
+            validators.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String cacheName(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash)
+                name.append(String.format("%02x", b));
+            return name.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
     public void close() {
         closed = true;
     }
@@ -0,0 +1,359 @@
+package com.redmart.skiinginsingapore.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fetches a body as several byte ranges at once into a file of its full length, for large maps
+ * on links where a single connection can't fill the pipe. The body is read back in order while
+ * the ranges are still coming in: a read waits until the range it falls in has got that far,
+ * so the reader sees one stream and never a range boundary.
+ *
+ * The ranges are fetched on the executor the requests run on. One the executor hasn't started
+ * by the time the reader gets to it is fetched by the reader itself, so a busy pool delays the
+ * download but never stalls it.
+ */
+class SegmentedDownload {
+    // Smaller ranges spend more on the extra requests than they win.
+    static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+    private static final int CHUNK = 64 * 1024;
+
+    private final String url;
+    private final int timeoutMs;
+    private final long length;
+    private final String eTag;
+    private final String lastModified;
+    // Segment k is from starts[k] (inclusive) to starts[k + 1] (exclusive).
+    private final long[] starts;
+    // Bytes of each segment on disk, guarded by this.
+    private final long[] filled;
+    // Segments some thread has taken on and how many of them are still being fetched, guarded
+    // by this.
+    private final boolean[] started;
+    private int running;
+    private final List<HttpURLConnection> connections = new ArrayList<>();
+    private IOException failure;
+    private volatile boolean aborted;
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    private SegmentedDownload(String url, int timeoutMs, long length, String eTag,
+                              String lastModified, int segments) {
+        this.url = url;
+        this.timeoutMs = timeoutMs;
+        this.length = length;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        starts = new long[segments + 1];
+        for (int k = 0; k <= segments; k++)
+            starts[k] = length * k / segments;
+        filled = new long[segments];
+        started = new boolean[segments];
+    }
+
+    /**
+     * Asks the server for the body's length and whether it serves ranges of it. Returns null
+     * when it doesn't, or when the body is too small for more than one segment.
+     */
+    static SegmentedDownload probe(String url, int segments, int timeoutMs) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            connection.setUseCaches(false);
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            // Ranges of a compressed body are ranges of the compressed bytes.
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            if (connection.getResponseCode() != 200)
+                return null;
+            String ranges = connection.getHeaderField("Accept-Ranges");
+            String encoding = connection.getContentEncoding();
+            String contentLength = connection.getHeaderField("Content-Length");
+            if (ranges == null || !ranges.toLowerCase(Locale.ROOT).contains("bytes") ||
+                    (encoding != null && !encoding.equalsIgnoreCase("identity")) ||
+                    contentLength == null)
+                return null;
+            final long length;
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            final int count = (int) Math.min(segments, length / MIN_SEGMENT_BYTES);
+            if (count < 2)
+                return null;
+            return new SegmentedDownload(url, timeoutMs, length,
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"),
+                    count);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    int getSegments() {
+        return filled.length;
+    }
+
+    String getETag() {
+        return eTag;
+    }
+
+    String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Whether the body is the one the validators of a kept copy were given for.
+     */
+    boolean isUnchanged(Properties validators) {
+        if (eTag != null)
+            return eTag.equals(validators.getProperty("ETag"));
+        return lastModified != null &&
+                lastModified.equals(validators.getProperty("Last-Modified"));
+    }
+
+    /**
+     * Starts fetching every segment on the executor into the file, sized to the body up front,
+     * and returns the body. Closing the body waits for the rest of it if keep, so the file can
+     * be kept, and stops the download otherwise or after {@link #abort()}.
+     */
+    InputStream start(File into, boolean keep, Executor executor) throws IOException {
+        file = new RandomAccessFile(into, "rw");
+        file.setLength(length);
+        channel = file.getChannel();
+        for (int k = 0; k < filled.length; k++) {
+            final int segment = k;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (claim(segment))
+                            fetchClaimed(segment);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The reader fetches it when it gets there.
+            }
+        }
+        return new Body(keep);
+    }
+
+    // Takes segment on for the calling thread, false if another thread already has.
+    private synchronized boolean claim(int segment) {
+        if (started[segment])
+            return false;
+        started[segment] = true;
+        running++;
+        return true;
+    }
+
+    private void fetchClaimed(int segment) {
+        try {
+            fetch(segment);
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            // What HttpURLConnection throws when abort() disconnects it mid-request.
+            fail(new IOException("Range " + starts[segment] + "-" + (starts[segment + 1] - 1) +
+                    " of " + url + " failed", e));
+        } finally {
+            synchronized (this) {
+                running--;
+                notifyAll();
+            }
+        }
+    }
+
+    // Waits for the segments being fetched, after claiming the ones nobody started so they
+    // never will be.
+    private synchronized void awaitIdle() {
+        for (int k = 0; k < started.length; k++)
+            started[k] = true;
+        while (running > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * True once every byte of the body is in the file.
+     */
+    synchronized boolean isComplete() {
+        if (failure != null)
+            return false;
+        for (int k = 0; k < filled.length; k++)
+            if (filled[k] < starts[k + 1] - starts[k])
+                return false;
+        return true;
+    }
+
+    private void fetch(int segment) throws IOException {
+        final long from = starts[segment];
+        final long to = starts[segment + 1];
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        synchronized (connections) {
+            if (aborted)
+                return;
+            connections.add(connection);
+        }
+        try {
+            connection.setUseCaches(false);
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            connection.setRequestProperty("Range", "bytes=" + from + "-" + (to - 1));
+            // A body changed since the probe comes whole, and is refused below.
+            if (eTag != null || lastModified != null)
+                connection.setRequestProperty("If-Range", (eTag != null) ? eTag : lastModified);
+            String range = connection.getHeaderField("Content-Range");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL ||
+                    range == null || !range.trim().startsWith("bytes " + from + "-"))
+                throw new IOException("Range " + from + "-" + (to - 1) + " of " + url +
+                        " not served, the map may have changed");
+
+            InputStream in = connection.getInputStream();
+            try {
+                byte[] chunk = new byte[CHUNK];
+                long position = from;
+                while (position < to && !aborted) {
+                    final int read = in.read(chunk, 0,
+                            (int) Math.min(chunk.length, to - position));
+                    if (read < 0)
+                        throw new IOException("Range " + from + "-" + (to - 1) + " of " + url +
+                                " ended early");
+                    ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, read);
+                    while (buffer.hasRemaining())
+                        channel.write(buffer, position + buffer.position());
+                    position += read;
+                    synchronized (this) {
+                        filled[segment] += read;
+                        notifyAll();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null && !aborted)
+            failure = e;
+        notifyAll();
+        abort();
+    }
+
+    /**
+     * Stops every segment still coming in, their reads fail once the sockets are closed, and
+     * with them the body's reads.
+     */
+    void abort() {
+        synchronized (connections) {
+            aborted = true;
+            for (HttpURLConnection connection : connections)
+                connection.disconnect();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    // Waits until the byte at position is on disk and returns how many follow it in its
+    // segment, up to the end of what is there.
+    private synchronized long awaitBytes(int segment, long position) throws IOException {
+        while (failure == null && !aborted && starts[segment] + filled[segment] <= position) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download of " + url + " interrupted");
+            }
+        }
+        if (failure != null)
+            throw failure;
+        if (starts[segment] + filled[segment] <= position)
+            throw new IOException("Download of " + url + " aborted");
+        return starts[segment] + filled[segment] - position;
+    }
+
+    private class Body extends InputStream {
+        private final byte[] one = new byte[1];
+        private final boolean keep;
+        private long position;
+        private int segment;
+        private boolean closed;
+
+        Body(boolean keep) {
+            this.keep = keep;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (closed)
+                throw new IOException("Body closed");
+            if (position == length)
+                return -1;
+            if (count == 0)
+                return 0;
+            while (position >= starts[segment + 1])
+                segment++;
+            if (claim(segment))
+                fetchClaimed(segment);
+            final int wanted = (int) Math.min(count, awaitBytes(segment, position));
+            ByteBuffer target = ByteBuffer.wrap(buffer, offset, wanted);
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position() - offset) < 0)
+                    throw new IOException("Download file of " + url + " cut short");
+            }
+            position += wanted;
+            return wanted;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                if (keep) {
+                    // The rest of the body still has to reach the file.
+                    for (int k = 0; k < filled.length; k++) {
+                        if (claim(k))
+                            fetchClaimed(k);
+                        awaitBytes(k, starts[k + 1] - 1);
+                    }
+                }
+            } catch (IOException e) {
+                // Nothing to keep then.
+            } finally {
+                abort();
+                awaitIdle();
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.redmart.skiinginsingapore.util;
+
+import com.redmart.skiinginsingapore.engine.Grid;
+import com.redmart.skiinginsingapore.engine.MapParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class AsyncHttpURLConnectionTest {
+    private static final String MAP = "4 4\n4 8 7 3\n2 5 9 3\n6 3 2 5\n4 4 1 6\n";
+    // About 5 MB of text, enough for four segments.
+    private static final byte[] LARGE_MAP = largeMap(1000, 1000);
+    private static final int HUGE_BYTES = 64 * 1024 * 1024;
+
+    private HttpServer server;
+    private File directory;
+    private final AtomicInteger bodyBytes = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicInteger wholeRequests = new AtomicInteger();
+    private final AtomicInteger hugeBytes = new AtomicInteger();
+    private volatile String largeMapTag = "\"r1\"";
+
+    @Before
+    public void startServer() throws Exception {
+        directory = File.createTempFile("maps", "");
+        directory.delete();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/map", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = MAP.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                bodyBytes.addAndGet(body.length);
+                exchange.close();
+            }
+        });
+        server.createContext("/gzip", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if(encoding == null || !encoding.contains("gzip")) {
+                    exchange.sendResponseHeaders(406, -1);
+                    exchange.close();
+                    return;
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+                gzip.write(MAP.getBytes("UTF-8"));
+                gzip.close();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, bytes.size());
+                exchange.getResponseBody().write(bytes.toByteArray());
+                exchange.close();
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(2000);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+        });
+        server.createContext("/huge", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] chunk = new byte[64 * 1024];
+                Arrays.fill(chunk, (byte) '7');
+                exchange.getResponseHeaders().set("ETag", "\"h1\"");
+                exchange.sendResponseHeaders(200, HUGE_BYTES);
+                try {
+                    for(int k = 0; k < HUGE_BYTES / chunk.length; k++) {
+                        exchange.getResponseBody().write(chunk);
+                        hugeBytes.addAndGet(chunk.length);
+                    }
+                } catch(IOException e) {
+                    // The client hung up.
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/ranged", new RangeHandler(true));
+        server.createContext("/unranged", new RangeHandler(false));
+        server.start();
+    }
+
+    // Serves LARGE_MAP, with HEAD and byte ranges if ranged. A range of another version of the
+    // map than the one in If-Range gets the whole map, as servers do.
+    private class RangeHandler implements HttpHandler {
+        private final boolean ranged;
+
+        RangeHandler(boolean ranged) {
+            this.ranged = ranged;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("ETag", largeMapTag);
+            if(ranged)
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if(exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length",
+                        String.valueOf(LARGE_MAP.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if(!ranged || range == null || (ifRange != null && !ifRange.equals(largeMapTag))) {
+                wholeRequests.incrementAndGet();
+                exchange.sendResponseHeaders(200, LARGE_MAP.length);
+                exchange.getResponseBody().write(LARGE_MAP);
+                exchange.close();
+                return;
+            }
+            rangeRequests.incrementAndGet();
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            final int from = Integer.parseInt(bounds[0]);
+            final int to = Integer.parseInt(bounds[1]) + 1;
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + from + "-" + (to - 1) + "/" + LARGE_MAP.length);
+            exchange.sendResponseHeaders(206, to - from);
+            exchange.getResponseBody().write(LARGE_MAP, from, to - from);
+            exchange.close();
+        }
+    }
+
+    private static byte[] largeMap(int rows, int cols) {
+        Random random = new Random(22);
+        StringBuilder text = new StringBuilder(rows * cols * 5);
+        text.append(rows).append(' ').append(cols).append('\n');
+        for(int x = 0; x < rows; x++) {
+            for(int y = 0; y < cols; y++)
+                text.append(random.nextInt(10000)).append((y + 1 < cols) ? ' ' : '\n');
+        }
+        try {
+            return text.toString().getBytes("US-ASCII");
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.stop(0);
+        File[] files = directory.listFiles();
+        if(files != null)
+            for(File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private AsyncHttpURLConnection connection(String path, final CountDownLatch done,
+                                              final String[] outcome) {
+        return new AsyncHttpURLConnection("GET", url(path), "",
+                new AsyncHttpURLConnection.AsyncHttpEvents() {
+                    @Override
+                    public void onHttpError(String errorMessage) {
+                        outcome[0] = "!" + errorMessage;
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onHttpComplete(String response) {
+                        outcome[0] = response;
+                        done.countDown();
+                    }
+                });
+    }
+
+    private String get(String path, File cacheDirectory, int timeoutMs) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        String[] outcome = new String[1];
+        AsyncHttpURLConnection connection = connection(path, done, outcome);
+        connection.setCacheDirectory(cacheDirectory);
+        connection.setTimeout(timeoutMs);
+        connection.submit();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return outcome[0];
+    }
+
+    @Test
+    public void unchangedBody_isServedFromDisk() throws Exception {
+        assertEquals(MAP, get("/map", directory, 5000));
+        assertEquals(MAP.length(), bodyBytes.get());
+
+        assertEquals(MAP, get("/map", directory, 5000));
+        assertEquals(1, notModified.get());
+        assertEquals(MAP.length(), bodyBytes.get());
+    }
+
+    @Test
+    public void unchangedBody_reachesResponseReader() throws Exception {
+        get("/map", directory, 5000);
+        CountDownLatch done = new CountDownLatch(1);
+        String[] outcome = new String[1];
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        AsyncHttpURLConnection connection = connection("/map", done, outcome);
+        connection.setCacheDirectory(directory);
+        connection.setResponseReader(new AsyncHttpURLConnection.ResponseReader() {
+            @Override
+            public void readResponse(InputStream response) throws IOException {
+                byte[] buffer = new byte[16];
+                int count;
+                while((count = response.read(buffer)) >= 0)
+                    read.write(buffer, 0, count);
+            }
+        });
+        connection.submit();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertNull(outcome[0]);
+        assertEquals(1, notModified.get());
+        assertEquals(MAP, read.toString("UTF-8"));
+    }
+
+    @Test
+    public void partlyReadBody_isStillKept() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        String[] outcome = new String[1];
+        AsyncHttpURLConnection connection = connection("/map", done, outcome);
+        connection.setCacheDirectory(directory);
+        connection.setResponseReader(new AsyncHttpURLConnection.ResponseReader() {
+            @Override
+            public void readResponse(InputStream response) throws IOException {
+                response.read();
+            }
+        });
+        connection.submit();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(MAP, get("/map", directory, 5000));
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    public void failedReader_doesNotDownloadTheRest() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        String[] outcome = new String[1];
+        AsyncHttpURLConnection connection = connection("/huge", done, outcome);
+        connection.setCacheDirectory(directory);
+        connection.setResponseReader(new AsyncHttpURLConnection.ResponseReader() {
+            @Override
+            public void readResponse(InputStream response) throws IOException {
+                response.read(new byte[1024]);
+                throw new IOException("Malformed map");
+            }
+        });
+        connection.submit();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertTrue(outcome[0], outcome[0].contains("Malformed map"));
+        assertTrue(hugeBytes.get() + " bytes sent", hugeBytes.get() < HUGE_BYTES / 2);
+        // Nothing kept of a body that was never read whole.
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void gzipBody_isDecoded() throws Exception {
+        assertEquals(MAP, get("/gzip", null, 5000));
+    }
+
+    @Test
+    public void slowServer_timesOut() throws Exception {
+        String outcome = get("/slow", null, 200);
+        assertNotNull(outcome);
+        assertTrue(outcome, outcome.startsWith("!"));
+    }
+
+    // Parses the map as the app does, straight from the response.
+    private Grid getLargeMap(String path, File cacheDirectory) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        String[] outcome = new String[1];
+        final Grid[] grid = new Grid[1];
+        AsyncHttpURLConnection connection = connection(path, done, outcome);
+        connection.setCacheDirectory(cacheDirectory);
+        connection.setSegments(4);
+        connection.setResponseReader(new AsyncHttpURLConnection.ResponseReader() {
+            @Override
+            public void readResponse(InputStream response) throws IOException {
+                grid[0] = MapParser.parse(response);
+            }
+        });
+        connection.submit();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertNull(outcome[0]);
+        return grid[0];
+    }
+
+    private static void assertLargeMap(Grid grid) throws Exception {
+        Grid expected = MapParser.parse(new ByteArrayInputStream(LARGE_MAP));
+        assertEquals(expected.getRows(), grid.getRows());
+        assertEquals(expected.getCols(), grid.getCols());
+        for(int i = 0; i < expected.size(); i++)
+            assertEquals("cell " + i, expected.get(i), grid.get(i));
+    }
+
+    @Test
+    public void rangedMap_comesInSegments_andParsesWhole() throws Exception {
+        assertLargeMap(getLargeMap("/ranged", null));
+        assertEquals(4, rangeRequests.get());
+        assertEquals(0, wholeRequests.get());
+    }
+
+    @Test
+    public void serverWithoutRanges_getsOneStream() throws Exception {
+        assertLargeMap(getLargeMap("/unranged", null));
+        assertEquals(0, rangeRequests.get());
+        assertEquals(1, wholeRequests.get());
+    }
+
+    @Test
+    public void segmentedMap_isKept_untilItChanges() throws Exception {
+        assertLargeMap(getLargeMap("/ranged", directory));
+        assertLargeMap(getLargeMap("/ranged", directory));
+        assertEquals(4, rangeRequests.get());
+
+        largeMapTag = "\"r2\"";
+        assertLargeMap(getLargeMap("/ranged", directory));
+        assertEquals(8, rangeRequests.get());
+        assertEquals(0, wholeRequests.get());
+    }
+
+    @Test
+    public void sameUrlAtOnce_keepsOneWholeCopy() throws Exception {
+        CountDownLatch done = new CountDownLatch(2);
+        String[][] outcomes = new String[2][1];
+        for(String[] outcome : outcomes) {
+            AsyncHttpURLConnection connection = connection("/unranged", done, outcome);
+            connection.setCacheDirectory(directory);
+            connection.submit();
+        }
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+
+        final String map = new String(LARGE_MAP, "US-ASCII");
+        for(String[] outcome : outcomes)
+            assertEquals(map, outcome[0]);
+        // The body and its validators, without either request's copy left over.
+        File[] kept = directory.listFiles();
+        assertEquals(2, kept.length);
+        for(File file : kept) {
+            if(!file.getName().endsWith(".headers"))
+                assertArrayEquals(LARGE_MAP, Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Test
+    public void mapChangingDuringDownload_isAnError() throws Exception {
+        final SegmentedDownload download = SegmentedDownload.probe(url("/ranged"), 4, 5000);
+        assertEquals(4, download.getSegments());
+        largeMapTag = "\"r2\"";
+        File file = File.createTempFile("map", ".part");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        InputStream body = download.start(file, false, pool);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            while(body.read(buffer) >= 0) {
+            }
+            fail("Read a map that changed");
+        } catch(IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("may have changed"));
+        } finally {
+            body.close();
+            file.delete();
+            pool.shutdown();
+        }
+        assertFalse(download.isComplete());
+    }
+
+    @Test
+    public void segmentsThePoolCantTake_areFetchedByTheReader() throws Exception {
+        SegmentedDownload download = SegmentedDownload.probe(url("/ranged"), 4, 5000);
+        File file = File.createTempFile("map", ".part");
+        InputStream body = download.start(file, true, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("Busy");
+            }
+        });
+        try {
+            assertLargeMap(MapParser.parse(body));
+        } finally {
+            body.close();
+            file.delete();
+        }
+        assertTrue(download.isComplete());
+        assertEquals(4, rangeRequests.get());
+    }
+}
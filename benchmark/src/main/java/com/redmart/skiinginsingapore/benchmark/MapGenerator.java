@@ -0,0 +1,119 @@
+package com.redmart.skiinginsingapore.benchmark;
+
+import com.redmart.skiinginsingapore.engine.Grid;
+import com.redmart.skiinginsingapore.engine.IntGrid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Deterministic maps for the benchmarks, the same shape and size always give the same map.
+ */
+public final class MapGenerator {
+    static final int MAX_ELEVATION = 1500;
+
+    private MapGenerator() {
+    }
+
+    public static Grid generate(String shape, int size) {
+        if(shape.equals("random"))
+            return random(size, size, 42);
+        if(shape.equals("smooth"))
+            return smooth(size, size, 42);
+        if(shape.equals("plateau"))
+            return plateau(size, size);
+        if(shape.equals("spiral"))
+            return spiral(size, size);
+        if(shape.equals("branching"))
+            return branching(size, size);
+        throw new IllegalArgumentException("Unknown map shape " + shape);
+    }
+
+    // Independent elevations in [0, 1500], like the RedMart sample map.
+    public static Grid random(int rows, int cols, long seed) {
+        Random random = new Random(seed);
+        Grid grid = new IntGrid(rows, cols);
+        for(int i = 0; i < grid.size(); i++)
+            grid.set(i, random.nextInt(MAX_ELEVATION + 1));
+        return grid;
+    }
+
+    // Rolling hills: a few overlapping waves with a little noise, long runs down the slopes.
+    public static Grid smooth(int rows, int cols, long seed) {
+        Random random = new Random(seed);
+        Grid grid = new IntGrid(rows, cols);
+        for(int x = 0; x < rows; x++)
+            for(int y = 0; y < cols; y++) {
+                double height = Math.sin(x / 37.0) + Math.cos(y / 53.0) +
+                        0.5 * Math.sin((x + y) / 19.0);
+                grid.set(x, y, (int) ((height + 2.5) / 5 * (MAX_ELEVATION - 10)) +
+                        random.nextInt(10));
+            }
+        return grid;
+    }
+
+    // Every cell at the same elevation, no run is longer than one cell.
+    public static Grid plateau(int rows, int cols) {
+        Grid grid = new IntGrid(rows, cols);
+        for(int i = 0; i < grid.size(); i++)
+            grid.set(i, MAX_ELEVATION);
+        return grid;
+    }
+
+    // A single run spiralling from the outer edge to the centre through every cell.
+    public static Grid spiral(int rows, int cols) {
+        Grid grid = new IntGrid(rows, cols);
+        int value = rows * cols;
+        int top = 0;
+        int bottom = rows - 1;
+        int left = 0;
+        int right = cols - 1;
+        while(top <= bottom && left <= right) {
+            for(int y = left; y <= right; y++)
+                grid.set(top, y, value--);
+            for(int x = top + 1; x <= bottom; x++)
+                grid.set(x, right, value--);
+            if(top < bottom)
+                for(int y = right - 1; y >= left; y--)
+                    grid.set(bottom, y, value--);
+            if(left < right)
+                for(int x = bottom - 1; x > top; x--)
+                    grid.set(x, left, value--);
+            top++;
+            bottom--;
+            left++;
+            right--;
+        }
+        return grid;
+    }
+
+    // Every cell is one above its right and lower neighbours: the number of distinct runs
+    // grows exponentially, which is the worst case for a search that walks every branch.
+    public static Grid branching(int rows, int cols) {
+        Grid grid = new IntGrid(rows, cols);
+        for(int x = 0; x < rows; x++)
+            for(int y = 0; y < cols; y++)
+                grid.set(x, y, (rows - 1 - x) + (cols - 1 - y));
+        return grid;
+    }
+
+    // The map in the text format served to the app.
+    public static byte[] toText(Grid grid) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(grid.size() * 5 + 16);
+        Writer out = new OutputStreamWriter(bytes, "US-ASCII");
+        out.write(grid.getRows() + " " + grid.getCols() + "\n");
+        for(int x = 0; x < grid.getRows(); x++) {
+            for(int y = 0; y < grid.getCols(); y++) {
+                if(y > 0)
+                    out.write(' ');
+                out.write(Integer.toString(grid.get(x, y)));
+            }
+            out.write('\n');
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+}
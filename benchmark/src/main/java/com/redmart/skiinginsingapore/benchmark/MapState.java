@@ -0,0 +1,40 @@
+package com.redmart.skiinginsingapore.benchmark;
+
+import com.redmart.skiinginsingapore.engine.Grid;
+import com.redmart.skiinginsingapore.engine.PackedGrid;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A generated map shared by the benchmarks of one trial.
+ */
+@State(Scope.Benchmark)
+public class MapState {
+
+    @Param({"random", "smooth", "plateau", "spiral", "branching"})
+    public String shape;
+
+    @Param({"100", "1000", "5000"})
+    public int size;
+
+    // "int", "packed" (bytes or shorts) or "compact" (N-bit codes), e.g. -p storage=int,compact.
+    @Param({"int"})
+    public String storage;
+
+    public Grid grid;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        grid = MapGenerator.generate(shape, size);
+        if(storage.equals("packed"))
+            grid = PackedGrid.of(grid, false);
+        else if(storage.equals("compact"))
+            grid = PackedGrid.of(grid, true);
+        else if(!storage.equals("int"))
+            throw new IllegalArgumentException("Unknown storage " + storage);
+    }
+}
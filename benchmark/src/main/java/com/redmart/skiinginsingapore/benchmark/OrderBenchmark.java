@@ -0,0 +1,29 @@
+package com.redmart.skiinginsingapore.benchmark;
+
+import com.redmart.skiinginsingapore.engine.ElevationOrder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Order stage: cells from the highest elevation to the lowest, what sortCoords used to do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OrderBenchmark {
+
+    @Benchmark
+    public int[] descending(MapState map) {
+        return ElevationOrder.descending(map.grid);
+    }
+}
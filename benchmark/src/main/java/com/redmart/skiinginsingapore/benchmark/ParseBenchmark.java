@@ -0,0 +1,50 @@
+package com.redmart.skiinginsingapore.benchmark;
+
+import com.redmart.skiinginsingapore.engine.Grid;
+import com.redmart.skiinginsingapore.engine.MapParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse stage: text map to grid, what loadMap used to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParseBenchmark {
+
+    private byte[] text;
+
+    @Setup(Level.Trial)
+    public void render(MapState map) throws IOException {
+        text = MapGenerator.toText(map.grid);
+    }
+
+    @Benchmark
+    public Grid parseStream() throws IOException {
+        return MapParser.parse(new ByteArrayInputStream(text));
+    }
+
+    @Benchmark
+    public Grid parseBuffer() throws IOException {
+        return MapParser.parse(ByteBuffer.wrap(text));
+    }
+}
@@ -0,0 +1,63 @@
+package com.redmart.skiinginsingapore.benchmark;
+
+import com.redmart.skiinginsingapore.engine.Result;
+import com.redmart.skiinginsingapore.engine.SkiSolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path rendering: the winning run as text, what showResult does before showing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PathBenchmark {
+
+    private Result result;
+
+    @Setup(Level.Trial)
+    public void solve(MapState map) throws IOException {
+        result = new SkiSolver(map.grid).solve();
+    }
+
+    @Benchmark
+    public void writePath(final Blackhole blackhole) throws IOException {
+        result.writePath(new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                blackhole.consume(buffer);
+            }
+
+            @Override
+            public void write(String text) {
+                blackhole.consume(text);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        }, "->");
+    }
+}
@@ -0,0 +1,82 @@
+package com.redmart.skiinginsingapore.benchmark;
+
+import com.redmart.skiinginsingapore.engine.DescentMask;
+import com.redmart.skiinginsingapore.engine.ElevationOrder;
+import com.redmart.skiinginsingapore.engine.ParallelSkiSolver;
+import com.redmart.skiinginsingapore.engine.Result;
+import com.redmart.skiinginsingapore.engine.SkiSolver;
+import com.redmart.skiinginsingapore.engine.SolverWorkspace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solve stage: every run of the map, what search and findLongestPath used to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SolveBenchmark {
+
+    private int[] order;
+    private ForkJoinPool pool;
+    private SolverWorkspace workspace;
+    private byte[] masks;
+
+    @Setup(Level.Trial)
+    public void prepare(MapState map) {
+        order = ElevationOrder.descending(map.grid);
+        pool = new ForkJoinPool();
+        workspace = new SolverWorkspace();
+        masks = new byte[map.grid.size()];
+    }
+
+    @TearDown(Level.Trial)
+    public void release() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Result sequential(MapState map) throws IOException {
+        return new SkiSolver(map.grid).solve();
+    }
+
+    /**
+     * As one run after another in the app, only the first allocates the solver's buffers.
+     */
+    @Benchmark
+    public Result sequentialInWorkspace(MapState map) throws IOException {
+        return new SkiSolver(map.grid, workspace).solve();
+    }
+
+    /**
+     * The neighbour mask pass every solver starts with, on its own.
+     */
+    @Benchmark
+    public byte[] descentMasks(MapState map) {
+        DescentMask.fill(map.grid, masks);
+        return masks;
+    }
+
+    @Benchmark
+    public Result parallel(MapState map) throws IOException {
+        return new ParallelSkiSolver(map.grid, pool).solve(order);
+    }
+}
@@ -0,0 +1,64 @@
+package com.redmart.skiinginsingapore.benchmark;
+
+import com.redmart.skiinginsingapore.engine.IncrementalSkiSolver;
+import com.redmart.skiinginsingapore.engine.IntGrid;
+import com.redmart.skiinginsingapore.engine.Result;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point edits on an already solved map, against the cost of solving it again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UpdateBenchmark {
+
+    private IncrementalSkiSolver solver;
+    private Random random;
+    private int rows;
+    private int cols;
+    private int min;
+    private int max;
+
+    @Setup(Level.Trial)
+    public void solve(MapState map) throws IOException {
+        rows = map.grid.getRows();
+        cols = map.grid.getCols();
+        final int[] cells = new int[map.grid.size()];
+        min = Integer.MAX_VALUE;
+        max = Integer.MIN_VALUE;
+        for(int i = 0; i < cells.length; i++) {
+            cells[i] = map.grid.get(i);
+            min = Math.min(min, cells[i]);
+            max = Math.max(max, cells[i]);
+        }
+        // A copy, the edits would otherwise leak into the other benchmarks' map.
+        solver = new IncrementalSkiSolver(new IntGrid(rows, cols, cells));
+        solver.solve();
+        random = new Random(42);
+    }
+
+    @Benchmark
+    public Result updateElevation() {
+        final int value = min + (int) (random.nextDouble() * ((double) max - min));
+        return solver.updateElevation(random.nextInt(rows), random.nextInt(cols), value);
+    }
+}
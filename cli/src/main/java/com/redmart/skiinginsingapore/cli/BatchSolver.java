@@ -0,0 +1,441 @@
+package com.redmart.skiinginsingapore.cli;
+
+import com.redmart.skiinginsingapore.engine.BandedSkiSolver;
+import com.redmart.skiinginsingapore.engine.ElevationHistogram;
+import com.redmart.skiinginsingapore.engine.ElevationOrder;
+import com.redmart.skiinginsingapore.engine.Grid;
+import com.redmart.skiinginsingapore.engine.MapPipeline;
+import com.redmart.skiinginsingapore.engine.Metrics;
+import com.redmart.skiinginsingapore.engine.PackedGrid;
+import com.redmart.skiinginsingapore.engine.Result;
+import com.redmart.skiinginsingapore.engine.ResultCache;
+import com.redmart.skiinginsingapore.engine.SkiFormat;
+import com.redmart.skiinginsingapore.engine.SkiRaster;
+import com.redmart.skiinginsingapore.engine.SkiSolver;
+import com.redmart.skiinginsingapore.engine.SolverWorkspace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solves map files from the command line, several at a time, and writes one JSON line per map:
+ * <pre>
+ *   {"file":"maps/a.txt","format":"text","rows":1000,"cols":1000,"length":15,"drop":1422,
+ *    "droppingFrom":1422,"droppingTo":0,"startX":12,"startY":700,"totalMs":181.8,
+ *    "metrics":{"phases":{"fetch":{...},"parse":{"wallNanos":80512000,"cpuNanos":80100000},
+ *    ...},"cellsVisited":1000000,"memoHits":1841204,"peakPathLength":15,"bytesRead":3894012}}
+ * </pre>
+ * with the {@link Metrics.Snapshot} of the map's run; fetch stays at 0 for local files.
+ * Maps that can't be read or solved get a line with an "error" instead. The totals, with maps
+ * and cells per second, go to stderr at the end.
+ *
+ * With --banded, .ski maps are never loaded whole but solved in strips of at most MB megabytes
+ * by a {@link BandedSkiSolver}, for maps larger than memory; their metrics only time the solve.
+ *
+ * With --raster, the run of every cell of each map goes to a {@link SkiRaster} in DIRECTORY,
+ * named after the map with .skr added. Maps solved in strips have no such field to export.
+ *
+ * Usage: {@code BatchSolver [--threads N] [--output FILE] [--path] [--banded MB]
+ * [--raster DIRECTORY] MAP_OR_DIRECTORY...}
+ */
+public class BatchSolver {
+    private static final String USAGE =
+            "Usage: BatchSolver [--threads N] [--output FILE] [--path] [--banded MB] " +
+            "[--raster DIRECTORY] MAP_OR_DIRECTORY...";
+    // Each thread solves its maps in the buffers of its previous one.
+    private static final ThreadLocal<SolverWorkspace> WORKSPACES =
+            new ThreadLocal<SolverWorkspace>() {
+                @Override
+                protected SolverWorkspace initialValue() {
+                    return new SolverWorkspace();
+                }
+            };
+
+    private final int threads;
+    private final boolean withPath;
+    private long bandMemory;
+    private File rasterDirectory;
+
+    /**
+     * Totals of a batch.
+     */
+    public static class Summary {
+        public final int maps;
+        public final int failures;
+        public final long cells;
+        public final long wallNanos;
+
+        public Summary(int maps, int failures, long cells, long wallNanos) {
+            this.maps = maps;
+            this.failures = failures;
+            this.cells = cells;
+            this.wallNanos = wallNanos;
+        }
+
+        public double mapsPerSecond() {
+            return (wallNanos > 0) ? (maps - failures) * 1e9 / wallNanos : 0;
+        }
+
+        public double cellsPerSecond() {
+            return (wallNanos > 0) ? cells * 1e9 / wallNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d maps (%d failed), %d cells in %.3f s: %.2f maps/s, %.0f cells/s",
+                    maps, failures, cells, wallNanos / 1e9, mapsPerSecond(), cellsPerSecond());
+        }
+    }
+
+    /**
+     * Solves up to threads maps at a time, with the winning path in every line if withPath.
+     */
+    public BatchSolver(int threads, boolean withPath) {
+        if(threads < 1)
+            throw new IllegalArgumentException("Need at least one thread");
+        this.threads = threads;
+        this.withPath = withPath;
+    }
+
+    /**
+     * Solves .ski maps in strips of at most this many bytes each, 0 to load them whole.
+     */
+    public void setBandMemory(long bytes) {
+        if(bytes < 0)
+            throw new IllegalArgumentException("Negative memory " + bytes);
+        bandMemory = bytes;
+    }
+
+    /**
+     * Writes the result raster of every map into the directory, null for none.
+     */
+    public void setRasterDirectory(File directory) {
+        rasterDirectory = directory;
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String output = null;
+        boolean withPath = false;
+        long bandMemory = 0;
+        File rasterDirectory = null;
+        List<String> paths = new ArrayList<>();
+        try {
+            for(int k = 0; k < args.length; k++) {
+                if(args[k].equals("--threads"))
+                    threads = Integer.parseInt(args[++k]);
+                else if(args[k].equals("--output"))
+                    output = args[++k];
+                else if(args[k].equals("--path"))
+                    withPath = true;
+                else if(args[k].equals("--banded"))
+                    bandMemory = Long.parseLong(args[++k]) * 1024 * 1024;
+                else if(args[k].equals("--raster"))
+                    rasterDirectory = new File(args[++k]);
+                else if(args[k].startsWith("--"))
+                    throw new IllegalArgumentException("Unknown option " + args[k]);
+                else
+                    paths.add(args[k]);
+            }
+            if(paths.isEmpty())
+                throw new IllegalArgumentException("No maps given");
+        } catch(ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            // NumberFormatException included.
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter((output != null) ?
+                    new FileOutputStream(output) : System.out, "UTF-8"));
+            Summary summary;
+            try {
+                BatchSolver solver = new BatchSolver(threads, withPath);
+                solver.setBandMemory(bandMemory);
+                solver.setRasterDirectory(rasterDirectory);
+                summary = solver.solve(expand(paths), out);
+            } finally {
+                out.close();
+            }
+            System.err.println(summary);
+            System.exit(summary.failures == 0 ? 0 : 1);
+        } catch(IOException | InterruptedException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Lists the files to solve: files as they are, directories by their files in name order.
+     */
+    public static List<File> expand(List<String> paths) throws IOException {
+        List<File> files = new ArrayList<>();
+        for(String path : paths) {
+            File file = new File(path);
+            if(file.isDirectory()) {
+                File[] children = file.listFiles();
+                if(children == null)
+                    throw new IOException("Can't list " + file);
+                Arrays.sort(children);
+                for(File child : children)
+                    if(child.isFile() && !child.isHidden())
+                        files.add(child);
+            } else if(file.isFile()) {
+                files.add(file);
+            } else {
+                throw new IOException("No such map " + file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Solves every map and writes its line to out as soon as it is done, so lines come in
+     * completion order. Only threads maps are in memory at a time, the caller runs the next map
+     * itself when all the workers are busy.
+     */
+    public Summary solve(List<File> maps, final Writer out)
+            throws IOException, InterruptedException {
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong cells = new AtomicLong();
+        final IOException[] writeFailure = new IOException[1];
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        final long start = System.nanoTime();
+        try {
+            for(final File map : maps) {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        String line;
+                        try {
+                            line = solve(map, cells);
+                        } catch(Exception | OutOfMemoryError e) {
+                            failures.incrementAndGet();
+                            line = "{\"file\":" + quote(map.getPath()) + ",\"error\":" +
+                                    quote(String.valueOf(e.getMessage())) + "}";
+                        }
+                        synchronized(out) {
+                            try {
+                                out.write(line);
+                                out.write('\n');
+                            } catch(IOException e) {
+                                writeFailure[0] = e;
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        final long wallNanos = System.nanoTime() - start;
+        synchronized(out) {
+            if(writeFailure[0] != null)
+                throw writeFailure[0];
+            out.flush();
+        }
+        return new Summary(maps.size(), failures.get(), cells.get(), wallNanos);
+    }
+
+    // Runs one map through every stage and returns its JSON line.
+    private String solve(File map, AtomicLong cells) throws IOException {
+        final long start = System.nanoTime();
+        Metrics metrics = new Metrics();
+        Solved solved;
+        InputStream in = new BufferedInputStream(metrics.count(new FileInputStream(map)));
+        try {
+            if(bandMemory > 0 && SkiFormat.isSkiFormat(in)) {
+                in.close();
+                if(rasterDirectory != null)
+                    throw new IOException("No raster for maps solved in strips");
+                return solveBanded(map, cells);
+            }
+            solved = solve(in, metrics, (rasterDirectory != null) ?
+                    new File(rasterDirectory, map.getName() + ".skr") : null);
+        } finally {
+            in.close();
+        }
+        final long end = System.nanoTime();
+        cells.addAndGet((long) solved.rows * solved.cols);
+        return line("\"file\":" + quote(map.getPath()), solved.format, solved.rows,
+                solved.cols, solved.result, withPath, end - start, metrics);
+    }
+
+    /**
+     * A map's result with what the JSON line says about the map.
+     */
+    static class Solved {
+        final String format;
+        final int rows;
+        final int cols;
+        final Result result;
+
+        Solved(String format, int rows, int cols, Result result) {
+            this.format = format;
+            this.rows = rows;
+            this.cols = cols;
+            this.result = result;
+        }
+    }
+
+    /**
+     * A parsed map waiting to be solved.
+     */
+    static class Parsed {
+        final String format;
+        final Grid grid;
+        // Null for .ski maps, which are read without one.
+        final ElevationHistogram histogram;
+        private String key;
+
+        Parsed(String format, Grid grid, ElevationHistogram histogram, String key) {
+            this.format = format;
+            this.grid = grid;
+            this.histogram = histogram;
+            this.key = key;
+        }
+
+        /**
+         * The map's {@link ResultCache} key, hashed here for .ski maps.
+         */
+        String key() {
+            if(key == null)
+                key = ResultCache.key(grid);
+            return key;
+        }
+    }
+
+    /**
+     * Parses a text or .ski map from the stream, which must support mark(), and solves it,
+     * timing every stage into metrics. The result raster goes to the raster file if not null.
+     * An interrupt of the calling thread stops the solve, with an InterruptedIOException while
+     * the map is parsed and a {@link CancellationException} after.
+     */
+    static Solved solve(InputStream in, Metrics metrics, File raster) throws IOException {
+        return solve(parse(in, metrics), metrics, raster);
+    }
+
+    /**
+     * The parse stage of {@link #solve(InputStream, Metrics, File)}.
+     */
+    static Parsed parse(InputStream in, Metrics metrics) throws IOException {
+        Metrics.Timer parse = metrics.start(Metrics.Phase.PARSE);
+        Parsed parsed;
+        if(SkiFormat.isSkiFormat(in)) {
+            parsed = new Parsed("ski", SkiFormat.read(in, PackedGrid.FACTORY), null, null);
+        } else {
+            MapPipeline pipeline = MapPipeline.parse(in, PackedGrid.FACTORY, null);
+            parsed = new Parsed("text", pipeline.getGrid(), pipeline.getHistogram(),
+                    pipeline.getKey());
+        }
+        parse.stop();
+        return parsed;
+    }
+
+    /**
+     * The ordering and search stages of {@link #solve(InputStream, Metrics, File)}.
+     */
+    static Solved solve(Parsed parsed, Metrics metrics, File raster) throws IOException {
+        final SolverWorkspace workspace = WORKSPACES.get();
+        final Grid grid = parsed.grid;
+        Metrics.Timer sort = metrics.start(Metrics.Phase.ORDER);
+        final int[] order = ElevationOrder.descending(grid, (parsed.histogram != null) ?
+                parsed.histogram : ElevationHistogram.of(grid), workspace);
+        sort.stop();
+
+        Metrics.Timer solve = metrics.start(Metrics.Phase.SOLVE);
+        SkiSolver solver = new SkiSolver(grid, workspace);
+        // The solver times the path's reconstruction on its own.
+        solver.setMetrics(metrics);
+        Result result = solver.solve(order, grid.size());
+        solve.stop();
+        if(raster != null)
+            SkiRaster.write(solver, result, raster);
+        return new Solved(parsed.format, grid.getRows(), grid.getCols(), result);
+    }
+
+    private String solveBanded(File map, AtomicLong cells) throws IOException {
+        final long start = System.nanoTime();
+        Metrics metrics = new Metrics();
+        SkiFormat.Header header = SkiFormat.readHeader(map);
+        Metrics.Timer solve = metrics.start(Metrics.Phase.SOLVE);
+        BandedSkiSolver solver = new BandedSkiSolver(map, null,
+                BandedSkiSolver.bandRows(header.cols, bandMemory));
+        Result result;
+        try {
+            result = solver.solve();
+        } finally {
+            solver.close();
+        }
+        solve.stop();
+        final long end = System.nanoTime();
+        cells.addAndGet((long) header.rows * header.cols);
+        return line("\"file\":" + quote(map.getPath()), "ski", header.rows, header.cols, result,
+                withPath, end - start, metrics);
+    }
+
+    /**
+     * The JSON line of a solved map, source being its first field, e.g. "file":"maps/a.txt".
+     */
+    static String line(String source, String format, int rows, int cols, Result result,
+                       boolean withPath, long totalNanos, Metrics metrics) throws IOException {
+        StringWriter line = new StringWriter();
+        line.write("{" + source);
+        line.write(",\"format\":\"" + format + "\"");
+        line.write(",\"rows\":" + rows + ",\"cols\":" + cols);
+        line.write(",\"length\":" + result.length + ",\"drop\":" + result.getDrop());
+        line.write(",\"droppingFrom\":" + result.droppingFrom +
+                ",\"droppingTo\":" + result.droppingTo);
+        line.write(",\"startX\":" + result.startX + ",\"startY\":" + result.startY);
+        if(withPath) {
+            line.write(",\"path\":[");
+            result.writePath(line, ",");
+            line.write("]");
+        }
+        line.write(",\"totalMs\":" + millis(totalNanos));
+        line.write(",\"metrics\":" + metrics.snapshot().toJson() + "}");
+        return line.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for(int k = 0; k < text.length(); k++) {
+            final char c = text.charAt(k);
+            if(c == '"' || c == '\\')
+                quoted.append('\\').append(c);
+            else if(c < 0x20)
+                quoted.append(String.format("\\u%04x", (int) c));
+            else
+                quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,410 @@
+package com.redmart.skiinginsingapore.cli;
+
+import com.redmart.skiinginsingapore.engine.Metrics;
+import com.redmart.skiinginsingapore.engine.ResultCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solves maps uploaded over HTTP on the local machine, for tools that would rather not start a
+ * JVM per map:
+ * <pre>
+ *   POST /solve         the map, text or .ski, as the body; ?path=true adds the path
+ *   GET  /stats         {"requests":12,"solves":9,"coalesced":3,"rejected":0,"failed":0,
+ *                        "queued":0,"active":1,"p50Ms":41.2,"p99Ms":180.5}
+ * </pre>
+ * A solve answers with the {@link BatchSolver} line of the map, "hash" in place of "file".
+ *
+ * Maps are solved on a fixed number of workers with a bounded queue in front of them. Uploads
+ * that find the queue full are turned away at once with a 503, so a client under load learns
+ * to back off instead of waiting on a queue that only grows. Uploads are parsed as they come
+ * in, and those of a map that is already queued or being solved, by its {@link ResultCache}
+ * key, wait for that solve and get its answer instead of solving the map again, whatever the
+ * upload's format, spacing or line endings.
+ *
+ * The latency percentiles are those of the last {@link #LATENCY_WINDOW} answered solves, from
+ * the end of the upload to the answer, rejections aside.
+ *
+ * Usage: {@code SolveServer [--port N] [--workers N] [--queue N] [--max-upload MB]}
+ */
+public class SolveServer {
+    private static final String USAGE =
+            "Usage: SolveServer [--port N] [--workers N] [--queue N] [--max-upload MB]";
+
+    public static final int LATENCY_WINDOW = 1024;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ThreadPoolExecutor workers;
+    private final ConcurrentMap<String, Solve> inFlight = new ConcurrentHashMap<>();
+    private final Latencies latencies = new Latencies(LATENCY_WINDOW);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong solves = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long maxUploadBytes = 256L * 1024 * 1024;
+
+    /**
+     * A server on the loopback port, 0 for any free one, with up to queueDepth maps waiting for
+     * the workers. Call start() to take requests.
+     */
+    public SolveServer(int port, int workerCount, int queueDepth) throws IOException {
+        if(workerCount < 1)
+            throw new IllegalArgumentException("Need at least one worker");
+        if(queueDepth < 1)
+            throw new IllegalArgumentException("Need a queue of at least one map");
+        server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // Handlers only read uploads and answer, the workers do the solving.
+        handlers = Executors.newFixedThreadPool(Math.max(2, workerCount));
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueDepth), new ThreadPoolExecutor.AbortPolicy());
+        server.setExecutor(handlers);
+        server.createContext("/solve", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleSolve(exchange);
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if(!exchange.getRequestMethod().equals("GET")) {
+                    answer(exchange, 405, "{\"error\":\"GET only\"}");
+                    return;
+                }
+                answer(exchange, 200, statsJson());
+            }
+        });
+    }
+
+    /**
+     * Larger uploads are refused with a 413.
+     */
+    public void setMaxUploadBytes(long bytes) {
+        if(bytes < 1)
+            throw new IllegalArgumentException("Need a limit of at least a byte");
+        maxUploadBytes = bytes;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops taking requests, turns the queued maps away and interrupts the ones being solved,
+     * which stop at the solver's next check and are turned away too.
+     */
+    public void stop() {
+        for(Runnable queued : workers.shutdownNow())
+            ((Solve) queued).reject();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public static void main(String[] args) {
+        int port = 8080;
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        int queueDepth = 2 * workerCount;
+        long maxUpload = 256;
+        try {
+            for(int k = 0; k < args.length; k++) {
+                if(args[k].equals("--port"))
+                    port = Integer.parseInt(args[++k]);
+                else if(args[k].equals("--workers"))
+                    workerCount = Integer.parseInt(args[++k]);
+                else if(args[k].equals("--queue"))
+                    queueDepth = Integer.parseInt(args[++k]);
+                else if(args[k].equals("--max-upload"))
+                    maxUpload = Long.parseLong(args[++k]);
+                else
+                    throw new IllegalArgumentException("Unknown option " + args[k]);
+            }
+        } catch(ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            // NumberFormatException included.
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            SolveServer server = new SolveServer(port, workerCount, queueDepth);
+            server.setMaxUploadBytes(maxUpload * 1024 * 1024);
+            server.start();
+            System.err.println("Solving maps on http://localhost:" + server.getPort() +
+                    "/solve with " + workerCount + " workers");
+        } catch(IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The counters and latency percentiles, as served on /stats.
+     */
+    public String statsJson() {
+        long[] window = latencies.snapshot();
+        return "{\"requests\":" + requests.get() + ",\"solves\":" + solves.get() +
+                ",\"coalesced\":" + coalesced.get() + ",\"rejected\":" + rejected.get() +
+                ",\"failed\":" + failed.get() + ",\"queued\":" + workers.getQueue().size() +
+                ",\"active\":" + workers.getActiveCount() +
+                ",\"p50Ms\":" + millis(Latencies.percentile(window, 50)) +
+                ",\"p99Ms\":" + millis(Latencies.percentile(window, 99)) + "}";
+    }
+
+    // For tests to keep the workers busy.
+    ThreadPoolExecutor getWorkers() {
+        return workers;
+    }
+
+    private void handleSolve(HttpExchange exchange) throws IOException {
+        if(!exchange.getRequestMethod().equals("POST")) {
+            answer(exchange, 405, "{\"error\":\"POST a map\"}");
+            return;
+        }
+        requests.incrementAndGet();
+        byte[] body = readBody(exchange);
+        if(body == null) {
+            failed.incrementAndGet();
+            answer(exchange, 413, "{\"error\":\"Map larger than " + maxUploadBytes +
+                    " bytes\"}");
+            return;
+        }
+        final String query = exchange.getRequestURI().getQuery();
+        final boolean withPath = query != null && Arrays.asList(query.split("&"))
+                .contains("path=true");
+        final Waiter waiter = new Waiter(exchange, System.nanoTime());
+
+        final Metrics metrics = new Metrics();
+        BatchSolver.Parsed parsed;
+        try {
+            parsed = BatchSolver.parse(new ByteArrayInputStream(body), metrics);
+        } catch(InterruptedIOException e) {
+            rejected.incrementAndGet();
+            answer(exchange, 503, "{\"error\":\"Server stopping\"}");
+            return;
+        } catch(Exception | OutOfMemoryError e) {
+            failed.incrementAndGet();
+            latencies.add(System.nanoTime() - waiter.start);
+            answer(exchange, 400, error(e));
+            return;
+        }
+        // Answers with and without the path differ, so they are never shared.
+        final String key = parsed.key() + (withPath ? "+path" : "");
+
+        while(true) {
+            Solve solve = inFlight.get(key);
+            if(solve != null) {
+                if(solve.join(waiter)) {
+                    coalesced.incrementAndGet();
+                    return;
+                }
+                // Answered in the meantime, it is out of the map already.
+                continue;
+            }
+            solve = new Solve(key, parsed, metrics, withPath);
+            solve.join(waiter);
+            if(inFlight.putIfAbsent(key, solve) != null)
+                continue;
+            try {
+                workers.execute(solve);
+            } catch(RejectedExecutionException e) {
+                inFlight.remove(key, solve);
+                solve.reject();
+            }
+            return;
+        }
+    }
+
+    // The whole upload, or null if it is larger than allowed.
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64 * 1024);
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while((read = in.read(chunk)) > 0) {
+                if(body.size() + (long) read > maxUploadBytes)
+                    return null;
+                body.write(chunk, 0, read);
+            }
+            return body.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String error(Throwable e) {
+        return "{\"error\":" + BatchSolver.quote(String.valueOf(e.getMessage())) + "}";
+    }
+
+    private static void answer(HttpExchange exchange, int status, String json) {
+        try {
+            byte[] body = (json + "\n").getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if(status == 503)
+                exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        } catch(IOException e) {
+            // The client went away, nobody is left to tell.
+            exchange.close();
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static class Waiter {
+        final HttpExchange exchange;
+        final long start;
+
+        Waiter(HttpExchange exchange, long start) {
+            this.exchange = exchange;
+            this.start = start;
+        }
+    }
+
+    // One map being solved for everyone who uploaded it in the meantime.
+    private class Solve implements Runnable {
+        private final String key;
+        private final BatchSolver.Parsed parsed;
+        private final Metrics metrics;
+        private final boolean withPath;
+        private final List<Waiter> waiters = new ArrayList<>();
+        private boolean answered;
+
+        Solve(String key, BatchSolver.Parsed parsed, Metrics metrics, boolean withPath) {
+            this.key = key;
+            this.parsed = parsed;
+            this.metrics = metrics;
+            this.withPath = withPath;
+        }
+
+        // False once the answer has gone out, the waiter needs a solve of its own then.
+        synchronized boolean join(Waiter waiter) {
+            if(answered)
+                return false;
+            waiters.add(waiter);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            int status;
+            String json;
+            try {
+                BatchSolver.Solved solved = BatchSolver.solve(parsed, metrics, null);
+                status = 200;
+                // The upload's parse counts towards the total too.
+                json = BatchSolver.line("\"hash\":\"" + parsed.key() + "\"",
+                        solved.format, solved.rows, solved.cols, solved.result, withPath,
+                        System.nanoTime() - start + metrics.snapshot()
+                                .getWallNanos(Metrics.Phase.PARSE), metrics);
+                solves.incrementAndGet();
+            } catch(CancellationException e) {
+                answerAll(503, "{\"error\":\"Server stopping\"}", false);
+                return;
+            } catch(Exception | OutOfMemoryError e) {
+                status = 400;
+                json = error(e);
+                failed.incrementAndGet();
+            }
+            answerAll(status, json, true);
+        }
+
+        void reject() {
+            answerAll(503, "{\"error\":\"Too many maps waiting, try again later\"}", false);
+        }
+
+        private void answerAll(int status, String json, boolean timed) {
+            // Out of the map first, so nobody joins a solve that won't answer them.
+            inFlight.remove(key, this);
+            List<Waiter> answering;
+            synchronized(this) {
+                answered = true;
+                answering = waiters;
+            }
+            final long end = System.nanoTime();
+            for(Waiter waiter : answering) {
+                if(timed)
+                    latencies.add(end - waiter.start);
+                else
+                    rejected.incrementAndGet();
+                answer(waiter.exchange, status, json);
+            }
+        }
+    }
+
+    /**
+     * The last few latencies, in nanos.
+     */
+    static class Latencies {
+        private final long[] window;
+        private int count;
+        private int next;
+
+        Latencies(int size) {
+            window = new long[size];
+        }
+
+        synchronized void add(long nanos) {
+            window[next] = nanos;
+            next = (next + 1) % window.length;
+            if(count < window.length)
+                count++;
+        }
+
+        synchronized long[] snapshot() {
+            return Arrays.copyOf(window, count);
+        }
+
+        /**
+         * The nearest-rank percentile of the latencies, 0 if there are none.
+         */
+        static long percentile(long[] latencies, int percent) {
+            if(latencies.length == 0)
+                return 0;
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            final int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.redmart.skiinginsingapore.cli;
+
+import com.redmart.skiinginsingapore.engine.Grid;
+import com.redmart.skiinginsingapore.engine.Metrics;
+import com.redmart.skiinginsingapore.engine.SkiFormat;
+import com.redmart.skiinginsingapore.engine.SkiRaster;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+public class BatchSolverTest {
+    private static final String SAMPLE = "4 4\n4 8 7 3\n2 5 9 3\n6 3 2 5\n4 4 1 6\n";
+
+    private File directory;
+
+    @Before
+    public void createMaps() throws Exception {
+        directory = File.createTempFile("maps", "");
+        directory.delete();
+        directory.mkdirs();
+        write("a.txt", SAMPLE);
+        write("c.txt", "2 2\n1 2\n3");
+        SkiFormat.write(Grid.of(new int[][]{{1, 2, 3}, {6, 5, 4}}), new File(directory, "b.ski"));
+    }
+
+    @After
+    public void deleteMaps() throws Exception {
+        File[] files = directory.listFiles();
+        if(files != null)
+            for(File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    private void write(String name, String text) throws Exception {
+        OutputStream out = new FileOutputStream(new File(directory, name));
+        try {
+            out.write(text.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private String lineOf(String[] lines, String name) {
+        for(String line : lines)
+            if(line.contains(name + "\""))
+                return line;
+        fail("No line for " + name);
+        return null;
+    }
+
+    @Test
+    public void directory_isExpandedInNameOrder() throws Exception {
+        List<File> files = BatchSolver.expand(Arrays.asList(directory.getPath()));
+        assertEquals(3, files.size());
+        assertEquals("a.txt", files.get(0).getName());
+        assertEquals("b.ski", files.get(1).getName());
+        assertEquals("c.txt", files.get(2).getName());
+    }
+
+    @Test
+    public void everyMap_getsALine() throws Exception {
+        StringWriter out = new StringWriter();
+        BatchSolver.Summary summary = new BatchSolver(2, true).solve(
+                BatchSolver.expand(Arrays.asList(directory.getPath())), out);
+        String[] lines = out.toString().split("\n");
+
+        assertEquals(3, lines.length);
+        String sample = lineOf(lines, "a.txt");
+        assertTrue(sample, sample.contains("\"format\":\"text\""));
+        assertTrue(sample, sample.contains("\"length\":5,\"drop\":8"));
+        assertTrue(sample, sample.contains("\"startX\":1,\"startY\":2"));
+        assertTrue(sample, sample.contains("\"path\":[9,5,3,2,1]"));
+        assertTrue(sample, sample.contains("\"solve\":{\"wallNanos\":"));
+        assertTrue(sample, sample.contains("\"cellsVisited\":16,"));
+        assertTrue(sample, sample.contains("\"bytesRead\":" + SAMPLE.length() + "}"));
+        String binary = lineOf(lines, "b.ski");
+        assertTrue(binary, binary.contains("\"format\":\"ski\""));
+        assertTrue(binary, binary.contains("\"path\":[6,5,4,3,2,1]"));
+        assertTrue(lineOf(lines, "c.txt").contains("\"error\":"));
+
+        assertEquals(3, summary.maps);
+        assertEquals(1, summary.failures);
+        assertEquals(16 + 6, summary.cells);
+        assertTrue(summary.mapsPerSecond() > 0);
+        assertTrue(summary.cellsPerSecond() > 0);
+    }
+
+    @Test
+    public void manyMaps_onOneThread() throws Exception {
+        File map = new File(directory, "a.txt");
+        File[] maps = new File[50];
+        Arrays.fill(maps, map);
+        StringWriter out = new StringWriter();
+        BatchSolver.Summary summary = new BatchSolver(1, false).solve(Arrays.asList(maps), out);
+
+        assertEquals(0, summary.failures);
+        assertEquals(50 * 16, summary.cells);
+        assertEquals(50, out.toString().split("\n").length);
+        assertFalse(out.toString().contains("\"path\""));
+    }
+
+    @Test
+    public void skiMaps_canBeSolvedInStrips() throws Exception {
+        StringWriter out = new StringWriter();
+        BatchSolver solver = new BatchSolver(1, true);
+        solver.setBandMemory(1);
+        BatchSolver.Summary summary = solver.solve(
+                Arrays.asList(new File(directory, "b.ski")), out);
+
+        String line = out.toString();
+        assertEquals(0, summary.failures);
+        assertTrue(line, line.contains("\"rows\":2,\"cols\":3,\"length\":6"));
+        assertTrue(line, line.contains("\"path\":[6,5,4,3,2,1]"));
+    }
+
+    @Test
+    public void rasters_areWrittenNextToEachOther() throws Exception {
+        File rasters = new File(directory, "rasters");
+        assertTrue(rasters.mkdir());
+        StringWriter out = new StringWriter();
+        BatchSolver solver = new BatchSolver(2, false);
+        solver.setRasterDirectory(rasters);
+        BatchSolver.Summary summary = solver.solve(Arrays.asList(new File(directory, "a.txt"),
+                new File(directory, "b.ski")), out);
+        assertEquals(0, summary.failures);
+
+        File sample = new File(rasters, "a.txt.skr");
+        SkiRaster raster = SkiRaster.open(sample);
+        try {
+            assertEquals(5, raster.getBestLength());
+            assertEquals(5, raster.lengthAt(1, 2));
+            assertEquals(8, raster.dropAt(1, 2));
+        } finally {
+            raster.close();
+        }
+        assertTrue(new File(rasters, "b.ski.skr").isFile());
+        for(File file : rasters.listFiles())
+            file.delete();
+        rasters.delete();
+    }
+
+    @Test
+    public void interruptedThread_stopsTheSolve() throws Exception {
+        File ski = File.createTempFile("interrupted", ".ski");
+        byte[] binary;
+        try {
+            SkiFormat.write(Grid.of(new int[][]{{1, 2}, {3, 4}}), ski);
+            binary = Files.readAllBytes(ski.toPath());
+        } finally {
+            ski.delete();
+        }
+        // Text maps are stopped while parsing, .ski ones once read.
+        for(byte[] map : new byte[][]{"2 2\n1 2\n3 4\n".getBytes("US-ASCII"), binary}) {
+            Thread.currentThread().interrupt();
+            try {
+                BatchSolver.solve(new ByteArrayInputStream(map), new Metrics(), null);
+                fail("Solved on an interrupted thread");
+            } catch(CancellationException | InterruptedIOException e) {
+                // Expected.
+            } finally {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    @Test
+    public void quote_escapesJson() throws Exception {
+        assertEquals("\"a\\\"b\\\\c\\u000a\"", BatchSolver.quote("a\"b\\c\n"));
+    }
+}
@@ -0,0 +1,184 @@
+package com.redmart.skiinginsingapore.cli;
+
+import com.redmart.skiinginsingapore.engine.Grid;
+import com.redmart.skiinginsingapore.engine.SkiFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class SolveServerTest {
+    private static final String SAMPLE = "4 4\n4 8 7 3\n2 5 9 3\n6 3 2 5\n4 4 1 6\n";
+
+    private SolveServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new SolveServer(0, 1, 1);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    // The status and body of the answer.
+    private String[] request(String method, String path, byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL("http://localhost:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        if(body != null) {
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        }
+        final int status = connection.getResponseCode();
+        InputStream in = (status < 400) ? connection.getInputStream() :
+                connection.getErrorStream();
+        ByteArrayOutputStream answer = new ByteArrayOutputStream();
+        try {
+            byte[] chunk = new byte[4096];
+            int read;
+            while((read = in.read(chunk)) > 0)
+                answer.write(chunk, 0, read);
+        } finally {
+            in.close();
+        }
+        return new String[]{String.valueOf(status), answer.toString("UTF-8")};
+    }
+
+    private String[] post(String text) throws Exception {
+        return request("POST", "/solve", text.getBytes("US-ASCII"));
+    }
+
+    @Test
+    public void textAndSkiMaps_areSolved() throws Exception {
+        String[] text = request("POST", "/solve?path=true", SAMPLE.getBytes("US-ASCII"));
+        assertEquals("200", text[0]);
+        assertTrue(text[1], text[1].contains("\"format\":\"text\""));
+        assertTrue(text[1], text[1].contains("\"length\":5,\"drop\":8"));
+        assertTrue(text[1], text[1].contains("\"path\":[9,5,3,2,1]"));
+
+        File file = File.createTempFile("upload", ".ski");
+        byte[] ski;
+        try {
+            SkiFormat.write(Grid.of(new int[][]{{1, 2, 3}, {6, 5, 4}}), file);
+            ski = new byte[(int) file.length()];
+            InputStream in = new FileInputStream(file);
+            try {
+                assertEquals(ski.length, in.read(ski));
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+        String[] binary = request("POST", "/solve", ski);
+        assertEquals("200", binary[0]);
+        assertTrue(binary[1], binary[1].contains("\"format\":\"ski\""));
+        assertTrue(binary[1], binary[1].contains("\"length\":6,\"drop\":5"));
+        assertFalse(binary[1], binary[1].contains("\"path\""));
+    }
+
+    @Test
+    public void sameMap_isSolvedOnce_andAFullQueueTurnsUploadsAway() throws Exception {
+        // The same map either way, however it is spaced.
+        final String[] uploads = {SAMPLE, SAMPLE.replace(" ", "  ").replace("\n", "\r\n")};
+        // Keeps the only worker busy until the uploads are in.
+        final CountDownLatch release = new CountDownLatch(1);
+        server.getWorkers().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        final String[][] answers = new String[2][];
+        Thread[] clients = new Thread[2];
+        for(int k = 0; k < clients.length; k++) {
+            final int client = k;
+            clients[k] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        answers[client] = post(uploads[client]);
+                    } catch(Exception e) {
+                        answers[client] = new String[]{"failed", e.toString()};
+                    }
+                }
+            };
+            clients[k].start();
+            // The first fills the queue, the second joins it.
+            waitFor(k == 0 ? "\"queued\":1" : "\"coalesced\":1");
+        }
+
+        String[] turnedAway = post("2 2\n1 2\n3 4\n");
+        assertEquals("503", turnedAway[0]);
+
+        release.countDown();
+        for(Thread client : clients)
+            client.join();
+        assertEquals("200", answers[0][0]);
+        assertEquals(answers[0][1], answers[1][1]);
+        assertTrue(answers[0][1], answers[0][1].contains("\"length\":5,\"drop\":8"));
+
+        String stats = request("GET", "/stats", null)[1];
+        assertTrue(stats, stats.startsWith(
+                "{\"requests\":3,\"solves\":1,\"coalesced\":1,\"rejected\":1,\"failed\":0,"));
+        assertFalse(stats, stats.contains("\"p50Ms\":0.000"));
+    }
+
+    @Test
+    public void badAndOversizedMaps_areRefused() throws Exception {
+        String[] bad = post("2 2\n1 x\n3 4\n");
+        assertEquals("400", bad[0]);
+        assertTrue(bad[1], bad[1].startsWith("{\"error\":"));
+
+        server.setMaxUploadBytes(10);
+        assertEquals("413", post(SAMPLE)[0]);
+        assertEquals("405", request("GET", "/solve", null)[0]);
+    }
+
+    @Test
+    public void percentiles_areNearestRank() throws Exception {
+        SolveServer.Latencies latencies = new SolveServer.Latencies(100);
+        assertEquals(0, SolveServer.Latencies.percentile(latencies.snapshot(), 99));
+        for(int k = 150; k >= 1; k--)
+            latencies.add(k);
+        // Only the last hundred count: 1 to 100.
+        long[] window = latencies.snapshot();
+        assertEquals(100, window.length);
+        assertEquals(50, SolveServer.Latencies.percentile(window, 50));
+        assertEquals(99, SolveServer.Latencies.percentile(window, 99));
+        assertEquals(100, SolveServer.Latencies.percentile(window, 100));
+    }
+
+    private void waitFor(String stat) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while(!server.statsJson().contains(stat)) {
+            if(System.currentTimeMillis() > deadline)
+                fail("No " + stat + " in " + server.statsJson());
+            Thread.sleep(5);
+        }
+    }
+}
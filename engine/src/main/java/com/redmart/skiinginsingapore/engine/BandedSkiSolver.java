@@ -0,0 +1,701 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.zip.CRC32;
+
+/**
+ * Solves .ski maps too large for memory, or for a single {@link Grid}, a strip of rows at a
+ * time. Only one strip's worth of cells is in memory, plus a buffer per strip, so RAM is
+ * bounded by the strip size and not by the map.
+ *
+ * A run only depends on lower cells, so the cells are solved lowest first across the whole
+ * map. Every strip is read once, its cells sorted by elevation along with their neighbours'
+ * elevations and spilled as a sorted run, and the runs are merged into one spill file of every
+ * cell lowest first. That file is solved a strip-sized slab after the other: a solved cell hands
+ * its run to its higher neighbours, directly when they are in the same slab and through a
+ * spilled bucket of their slab otherwise. So every cell is solved once, with the same runs and
+ * ties as the in-memory {@link SkiSolver}, however often runs cross from strip to strip.
+ *
+ * The step every cell takes is spilled in the same order, and a run only goes down, so the
+ * winning path is followed with one backward read from its first cell. Runs, as in
+ * {@link Result}, are limited to 2^31 - 1 cells.
+ */
+public class BandedSkiSolver implements Closeable {
+    // Memory per cell of a strip: elevation, index, the neighbours' elevations, length, lowest
+    // end and step, plus the sort.
+    static final int BYTES_PER_CELL = 4 + 8 + 16 + 4 + 4 + 1 + 20;
+    // Cells of the largest strip, its neighbours' elevations are four ints a cell.
+    private static final int MAX_STRIP_CELLS = Integer.MAX_VALUE / 4;
+    private static final int CHUNK_SIZE = 1 << 20;
+    // A cell in the sorted files: elevation, index and the elevations to its right, left, below
+    // and above, its own where it has no such neighbour.
+    private static final int CELL_SIZE = 4 + 8 + 16;
+    // A solved cell as the path reads it: elevation, index and step.
+    private static final int STEP_SIZE = 4 + 8 + 1;
+    // A run handed to a higher cell: that cell's elevation and index, its step and the run.
+    private static final int MESSAGE_SIZE = 4 + 8 + 1 + 4 + 4;
+    private static final int RUN_BUFFER_SIZE = 1024 * CELL_SIZE;
+    // A bucket block starts with the position of the one written before it and its bytes used.
+    private static final int BLOCK_SIZE = 1 << 13;
+    private static final int BLOCK_HEADER = 8 + 4;
+    private static final byte END = 0;
+    private static final byte RIGHT = 1;
+    private static final byte LEFT = 2;
+    private static final byte DOWN = 3;
+    private static final byte UP = 4;
+
+    private final int rows;
+    private final int cols;
+    private final int bandRows;
+    private final int bands;
+    private final int slabSize;
+    private final long cellCount;
+    private final int checksum;
+    private final RandomAccessFile map;
+    private final File[] spillFiles;
+    // The strips' sorted runs, then the step of every cell.
+    private final RandomAccessFile runs;
+    private final RandomAccessFile sorted;
+    private final RandomAccessFile messages;
+    private final ByteBuffer chunk;
+    private volatile boolean cancelled;
+
+    // The strip, then the slab, in memory.
+    private final int[] elevation;
+    private final long[] index;
+    private final int[] neighbours;
+    private final int[] length;
+    private final int[] droppingTo;
+    private final byte[] step;
+    private final int[] aboveElevation;
+    private final int[] belowElevation;
+    private final SolverWorkspace workspace = new SolverWorkspace();
+    private ElevationHistogram histogram;
+
+    // The first cell of every slab, and its bucket: the block being filled and the last one
+    // spilled. Blocks of buckets already delivered are reused.
+    private final int[] firstElevation;
+    private final long[] firstIndex;
+    private final ByteBuffer[] pending;
+    private final long[] lastBlock;
+    private final List<ByteBuffer> spareBlocks = new ArrayList<ByteBuffer>();
+    private final ByteBuffer block;
+    private final ByteBuffer link;
+    private long freeBlock;
+    private long messagesEnd;
+
+    private long bestRank;
+    private long bestIndex;
+    private int bestLength;
+    private int bestFrom;
+    private int bestTo;
+    private long stripReads;
+
+    /**
+     * Opens the .ski map for solving in strips of bandRows rows, see {@link #bandRows(int, long)}.
+     * The spill files go to the directory, null standing for the default temporary one, and
+     * are deleted again on close().
+     */
+    public BandedSkiSolver(File mapFile, File spillDirectory, int bandRows) throws IOException {
+        SkiFormat.Header header = SkiFormat.readHeader(mapFile);
+        rows = header.rows;
+        cols = header.cols;
+        checksum = header.checksum;
+        if(bandRows < 1 || (cols > 0 && bandRows > MAX_STRIP_CELLS / cols))
+            throw new IllegalArgumentException("Bad strip of " + bandRows + " rows");
+        this.bandRows = (rows > 0) ? Math.min(bandRows, rows) : 1;
+        bands = (rows + this.bandRows - 1) / this.bandRows;
+        if(mapFile.length() < SkiFormat.HEADER_SIZE + 4L * rows * cols)
+            throw new EOFException("Malformed .ski map: unexpected end of data");
+
+        slabSize = this.bandRows * cols;
+        cellCount = (long) rows * cols;
+        elevation = new int[slabSize];
+        index = new long[slabSize];
+        neighbours = new int[4 * slabSize];
+        length = new int[slabSize];
+        droppingTo = new int[slabSize];
+        step = new byte[slabSize];
+        aboveElevation = new int[cols];
+        belowElevation = new int[cols];
+        firstElevation = new int[bands];
+        firstIndex = new long[bands];
+        pending = new ByteBuffer[bands];
+        lastBlock = new long[bands];
+        chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        block = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        link = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+        map = new RandomAccessFile(mapFile, "r");
+        spillFiles = new File[3];
+        final RandomAccessFile[] spills = new RandomAccessFile[spillFiles.length];
+        final String[] names = {"runs", "sorted", "messages"};
+        try {
+            for(int k = 0; k < spills.length; k++) {
+                spillFiles[k] = File.createTempFile(names[k], ".spill", spillDirectory);
+                spillFiles[k].deleteOnExit();
+                spills[k] = new RandomAccessFile(spillFiles[k], "rw");
+            }
+        } catch(IOException e) {
+            close(map, spills, spillFiles);
+            throw e;
+        }
+        runs = spills[0];
+        sorted = spills[1];
+        messages = spills[2];
+    }
+
+    /**
+     * The most rows per strip that keep a strip of a map cols wide within memoryBytes.
+     */
+    public static int bandRows(final int cols, final long memoryBytes) {
+        if(cols == 0)
+            return Integer.MAX_VALUE;
+        final long fits = memoryBytes / ((long) cols * BYTES_PER_CELL);
+        return (int) Math.max(1, Math.min(fits, MAX_STRIP_CELLS / cols));
+    }
+
+    /**
+     * Solves the map and returns its best run, the one {@link SkiSolver#solve()} would find.
+     * The map's checksum is checked once every strip was read.
+     */
+    public Result solve() throws IOException {
+        if(rows == 0 || cols == 0)
+            return new Result(0, 0, 0, 0, 0, new int[0]);
+        CRC32 crc = new CRC32();
+        for(int band = 0; band < bands; band++)
+            sortStrip(band, crc);
+        if((int) crc.getValue() != checksum)
+            throw new IOException("Corrupted .ski map: checksum mismatch");
+        merge();
+        // The runs are merged, their file takes the steps.
+        runs.setLength(0);
+
+        for(int slab = 0; slab < bands; slab++) {
+            if(pending[slab] != null)
+                spareBlocks.add(pending[slab]);
+        }
+        Arrays.fill(pending, null);
+        Arrays.fill(lastBlock, -1);
+        freeBlock = -1;
+        messagesEnd = 0;
+        messages.setLength(0);
+        bestRank = -1;
+        for(int slab = 0; slab < bands; slab++)
+            solveSlab(slab);
+        sorted.setLength(0);
+        messages.setLength(0);
+
+        return new Result(bestLength, bestFrom, bestTo, (int) (bestIndex / cols),
+                (int) (bestIndex % cols), trackPath());
+    }
+
+    /**
+     * Stops the solve running on another thread before its next strip or slab. Interrupting
+     * the solving thread does the same.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Strips read from the map so far.
+     */
+    long getStripReads() {
+        return stripReads;
+    }
+
+    int getBands() {
+        return bands;
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(map, new RandomAccessFile[]{runs, sorted, messages}, spillFiles);
+    }
+
+    private static void close(RandomAccessFile map, RandomAccessFile[] spills, File[] spillFiles)
+            throws IOException {
+        try {
+            map.close();
+        } finally {
+            try {
+                for(RandomAccessFile spill : spills)
+                    if(spill != null)
+                        spill.close();
+            } finally {
+                for(File file : spillFiles)
+                    if(file != null)
+                        file.delete();
+            }
+        }
+    }
+
+    private void checkCancelled() {
+        if(cancelled || Thread.currentThread().isInterrupted())
+            throw new CancellationException("Solve cancelled");
+    }
+
+    // Reads a strip and the rows around it and spills its cells lowest first, as its run.
+    private void sortStrip(final int band, final CRC32 crc) throws IOException {
+        checkCancelled();
+        final int start = band * bandRows;
+        final int stripRows = Math.min(bandRows, rows - start);
+        final int cells = stripRows * cols;
+        final boolean hasAbove = band > 0;
+        final boolean hasBelow = band < bands - 1;
+        if(hasAbove)
+            readInts(map, mapPosition(start - 1), aboveElevation, cols, null);
+        readInts(map, mapPosition(start), elevation, cells, crc);
+        if(hasBelow)
+            readInts(map, mapPosition(start + stripRows), belowElevation, cols, null);
+        stripReads++;
+
+        final Grid strip = new Strip(stripRows, cols, elevation);
+        if(histogram == null)
+            histogram = new ElevationHistogram(slabSize);
+        histogram.recount(strip);
+        final int[] order = ElevationOrder.descending(strip, histogram, workspace);
+        final FileChannel channel = runs.getChannel();
+        long position = (long) band * slabSize * CELL_SIZE;
+        chunk.clear();
+        // Highest first with ties in row order, so backwards it is the solve's order.
+        for(int k = cells - 1; k >= 0; k--) {
+            final int i = order[k];
+            final int y = i % cols;
+            final int value = elevation[i];
+            if(chunk.remaining() < CELL_SIZE)
+                position = flush(channel, position);
+            chunk.putInt(value).putLong((long) start * cols + i);
+            chunk.putInt((y < cols - 1) ? elevation[i + 1] : value);
+            chunk.putInt((y > 0) ? elevation[i - 1] : value);
+            if(i + cols < cells)
+                chunk.putInt(elevation[i + cols]);
+            else
+                chunk.putInt(hasBelow ? belowElevation[y] : value);
+            if(i >= cols)
+                chunk.putInt(elevation[i - cols]);
+            else
+                chunk.putInt(hasAbove ? aboveElevation[y] : value);
+        }
+        flush(channel, position);
+    }
+
+    // Merges the strips' runs into the sorted file, noting the first cell of every slab.
+    private void merge() throws IOException {
+        final Run[] heap = new Run[bands];
+        int size = 0;
+        for(int band = 0; band < bands; band++) {
+            final long start = (long) band * slabSize;
+            final long end = Math.min(start + slabSize, cellCount);
+            heap[size++] = new Run(start * CELL_SIZE, end * CELL_SIZE);
+        }
+        for(int k = size / 2 - 1; k >= 0; k--)
+            siftDown(heap, k, size);
+
+        final FileChannel channel = sorted.getChannel();
+        long position = 0;
+        chunk.clear();
+        for(long rank = 0; size > 0; rank++) {
+            final Run run = heap[0];
+            if(rank % slabSize == 0) {
+                checkCancelled();
+                firstElevation[(int) (rank / slabSize)] = run.elevation();
+                firstIndex[(int) (rank / slabSize)] = run.index();
+            }
+            if(chunk.remaining() < CELL_SIZE)
+                position = flush(channel, position);
+            run.copyTo(chunk);
+            if(!run.next())
+                heap[0] = heap[--size];
+            siftDown(heap, 0, size);
+        }
+        flush(channel, position);
+    }
+
+    private static void siftDown(final Run[] heap, int k, final int size) {
+        final Run run = heap[k];
+        while(2 * k + 1 < size) {
+            int child = 2 * k + 1;
+            if(child + 1 < size && heap[child + 1].isBefore(heap[child]))
+                child++;
+            if(!heap[child].isBefore(run))
+                break;
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = run;
+    }
+
+    // Whether a cell comes before the other one in the solve's order: lower, or as high and
+    // further down the map.
+    private static boolean isBefore(final int elevation, final long index,
+                                    final int otherElevation, final long otherIndex) {
+        return elevation < otherElevation || (elevation == otherElevation && index > otherIndex);
+    }
+
+    // Solves the slab's cells in order, every one of them has its lower neighbours' runs by then.
+    private void solveSlab(final int slab) throws IOException {
+        checkCancelled();
+        final long first = (long) slab * slabSize;
+        final int count = (int) Math.min(slabSize, cellCount - first);
+        readSlab(first, count);
+        deliver(slab, count);
+
+        final FileChannel channel = runs.getChannel();
+        long position = first * STEP_SIZE;
+        chunk.clear();
+        for(int s = 0; s < count; s++) {
+            final int value = elevation[s];
+            // As good a run as the best one is at the same elevation and further up the map.
+            if(bestRank < 0 || !isBetter(bestLength, bestFrom, bestTo,
+                    length[s], value, droppingTo[s])) {
+                bestRank = first + s;
+                bestIndex = index[s];
+                bestLength = length[s];
+                bestFrom = value;
+                bestTo = droppingTo[s];
+            }
+            final int at = 4 * s;
+            if(neighbours[at] > value)
+                offer(s, count, slab, neighbours[at], index[s] + 1, LEFT);
+            if(neighbours[at + 1] > value)
+                offer(s, count, slab, neighbours[at + 1], index[s] - 1, RIGHT);
+            if(neighbours[at + 2] > value)
+                offer(s, count, slab, neighbours[at + 2], index[s] + cols, UP);
+            if(neighbours[at + 3] > value)
+                offer(s, count, slab, neighbours[at + 3], index[s] - cols, DOWN);
+
+            if(chunk.remaining() < STEP_SIZE)
+                position = flush(channel, position);
+            chunk.putInt(value).putLong(index[s]).put(step[s]);
+        }
+        flush(channel, position);
+    }
+
+    private void readSlab(final long first, final int count) throws IOException {
+        final FileChannel channel = sorted.getChannel();
+        long position = first * CELL_SIZE;
+        for(int s = 0; s < count; ) {
+            final int n = Math.min(count - s, CHUNK_SIZE / CELL_SIZE);
+            fill(channel, position, n * CELL_SIZE);
+            position += (long) n * CELL_SIZE;
+            for(final int end = s + n; s < end; s++) {
+                elevation[s] = chunk.getInt();
+                index[s] = chunk.getLong();
+                for(int k = 0; k < 4; k++)
+                    neighbours[4 * s + k] = chunk.getInt();
+                length[s] = 1;
+                droppingTo[s] = elevation[s];
+                step[s] = END;
+            }
+        }
+    }
+
+    // Hands the run of slot s to its higher neighbour, which gets there with the step.
+    private void offer(final int s, final int count, final int slab, final int toElevation,
+                       final long toIndex, final byte direction) throws IOException {
+        if(isBefore(elevation[count - 1], index[count - 1], toElevation, toIndex)) {
+            post(slabOf(toElevation, toIndex, slab + 1), toElevation, toIndex, direction,
+                    length[s] + 1, droppingTo[s]);
+        } else {
+            take(find(toElevation, toIndex, s + 1, count), direction, length[s] + 1,
+                    droppingTo[s]);
+        }
+    }
+
+    // Same choice as SkiSolver.settle(), whatever order the lower neighbours' runs come in:
+    // the longer run, the one dropping lower, then the step tried first.
+    private void take(final int s, final byte direction, final int runLength, final int runTo) {
+        if(isLonger(runLength, runTo, length[s], droppingTo[s]) ||
+                (runLength == length[s] && runTo == droppingTo[s] && direction < step[s])) {
+            length[s] = runLength;
+            droppingTo[s] = runTo;
+            step[s] = direction;
+        }
+    }
+
+    // The slot of the cell in the slab, between from (inclusive) and to (exclusive).
+    private int find(final int cellElevation, final long cellIndex, int from, final int to) {
+        int end = to;
+        while(from < end) {
+            final int middle = (from + end) >>> 1;
+            if(isBefore(elevation[middle], index[middle], cellElevation, cellIndex))
+                from = middle + 1;
+            else
+                end = middle;
+        }
+        if(from == to || elevation[from] != cellElevation || index[from] != cellIndex)
+            throw new IllegalStateException("No cell " + cellIndex + " in the slab");
+        return from;
+    }
+
+    // The slab of the cell, from the slab from on.
+    private int slabOf(final int cellElevation, final long cellIndex, int from) {
+        int to = bands - 1;
+        while(from < to) {
+            final int middle = (from + to + 1) >>> 1;
+            if(isBefore(cellElevation, cellIndex, firstElevation[middle], firstIndex[middle]))
+                to = middle - 1;
+            else
+                from = middle;
+        }
+        return from;
+    }
+
+    private void post(final int slab, final int toElevation, final long toIndex,
+                      final byte direction, final int runLength, final int runTo)
+            throws IOException {
+        ByteBuffer bucket = pending[slab];
+        if(bucket == null) {
+            bucket = spareBlocks.isEmpty() ?
+                    ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN) :
+                    spareBlocks.remove(spareBlocks.size() - 1);
+            bucket.clear();
+            bucket.position(BLOCK_HEADER);
+            pending[slab] = bucket;
+        } else if(bucket.remaining() < MESSAGE_SIZE) {
+            spillBlock(slab, bucket);
+        }
+        bucket.putInt(toElevation).putLong(toIndex).put(direction).putInt(runLength).putInt(runTo);
+    }
+
+    // Spills a slab's full block into a free block of the messages file, or after the others.
+    private void spillBlock(final int slab, final ByteBuffer bucket) throws IOException {
+        final FileChannel channel = messages.getChannel();
+        long position;
+        if(freeBlock >= 0) {
+            position = freeBlock;
+            readFully(channel, link, position, 8);
+            freeBlock = link.getLong(0);
+        } else {
+            position = messagesEnd;
+            messagesEnd += BLOCK_SIZE;
+        }
+        bucket.putLong(0, lastBlock[slab]);
+        bucket.putInt(8, bucket.position() - BLOCK_HEADER);
+        bucket.clear();
+        writeFully(channel, bucket, position);
+        lastBlock[slab] = position;
+        bucket.clear();
+        bucket.position(BLOCK_HEADER);
+    }
+
+    // Hands the slab the runs sent to it from earlier slabs, its blocks become free ones.
+    private void deliver(final int slab, final int count) throws IOException {
+        final ByteBuffer bucket = pending[slab];
+        if(bucket == null)
+            return;
+        takeAll(bucket, bucket.position(), count);
+        pending[slab] = null;
+        spareBlocks.add(bucket);
+
+        final FileChannel channel = messages.getChannel();
+        for(long position = lastBlock[slab]; position >= 0; ) {
+            readFully(channel, block, position, BLOCK_SIZE);
+            final long previous = block.getLong(0);
+            takeAll(block, BLOCK_HEADER + block.getInt(8), count);
+            if(previous < 0) {
+                // The bucket's first block: the free ones go on after its last.
+                link.clear();
+                link.putLong(0, freeBlock);
+                writeFully(channel, link, position);
+                freeBlock = lastBlock[slab];
+            }
+            position = previous;
+        }
+        lastBlock[slab] = -1;
+    }
+
+    private void takeAll(final ByteBuffer bucket, final int end, final int count) {
+        for(int at = BLOCK_HEADER; at < end; at += MESSAGE_SIZE) {
+            final int s = find(bucket.getInt(at), bucket.getLong(at + 4), 0, count);
+            take(s, bucket.get(at + 12), bucket.getInt(at + 13), bucket.getInt(at + 17));
+        }
+    }
+
+    private static boolean isLonger(final int length, final int droppingTo,
+                                    final int bestLength, final int bestTo) {
+        return length > bestLength || (length == bestLength && droppingTo < bestTo);
+    }
+
+    private static boolean isBetter(final int length, final int from, final int to,
+                                    final int otherLength, final int otherFrom,
+                                    final int otherTo) {
+        if(length != otherLength)
+            return length > otherLength;
+        if(from - to != otherFrom - otherTo)
+            return from - to > otherFrom - otherTo;
+        return from > otherFrom;
+    }
+
+    // Follows the best run from its first cell. Every cell of it is lower than the one before,
+    // so comes earlier in the steps, which are read backwards from there once.
+    private int[] trackPath() throws IOException {
+        final int[] path = new int[bestLength];
+        final FileChannel channel = runs.getChannel();
+        long next = bestIndex;
+        int k = 0;
+        for(long rank = bestRank; k < path.length; ) {
+            if(rank < 0)
+                throw new IllegalStateException("Run ends early at cell " + next);
+            final int n = (int) Math.min(rank + 1, CHUNK_SIZE / STEP_SIZE);
+            rank -= n;
+            fill(channel, (rank + 1) * STEP_SIZE, n * STEP_SIZE);
+            for(int at = (n - 1) * STEP_SIZE; at >= 0 && k < path.length; at -= STEP_SIZE) {
+                if(chunk.getLong(at + 4) != next)
+                    continue;
+                path[k++] = chunk.getInt(at);
+                switch(chunk.get(at + 12)) {
+                    case RIGHT:
+                        next++;
+                        break;
+                    case LEFT:
+                        next--;
+                        break;
+                    case DOWN:
+                        next += cols;
+                        break;
+                    case UP:
+                        next -= cols;
+                        break;
+                    default:
+                        if(k != path.length)
+                            throw new IllegalStateException("Run ends early at (" +
+                                    next / cols + ", " + next % cols + ")");
+                }
+            }
+        }
+        return path;
+    }
+
+    private long mapPosition(final int x) {
+        return SkiFormat.HEADER_SIZE + 4L * x * cols;
+    }
+
+    private void readInts(RandomAccessFile file, long position, final int[] values,
+                          final int count, final CRC32 crc) throws IOException {
+        final FileChannel channel = file.getChannel();
+        for(int offset = 0; offset < count; ) {
+            final int n = Math.min(count - offset, CHUNK_SIZE / 4);
+            fill(channel, position, n * 4);
+            if(crc != null)
+                crc.update(chunk.array(), 0, chunk.limit());
+            chunk.asIntBuffer().get(values, offset, n);
+            position += n * 4L;
+            offset += n;
+        }
+    }
+
+    private void fill(final FileChannel channel, final long position, final int bytes)
+            throws IOException {
+        readFully(channel, chunk, position, bytes);
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer,
+                                  final long position, final int bytes) throws IOException {
+        buffer.clear();
+        buffer.limit(bytes);
+        while(buffer.hasRemaining())
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of " + channel);
+        buffer.flip();
+    }
+
+    // Writes what was put into the chunk and empties it.
+    private long flush(final FileChannel channel, final long position) throws IOException {
+        chunk.flip();
+        final long end = position + chunk.remaining();
+        writeFully(channel, chunk, position);
+        chunk.clear();
+        return end;
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer,
+                                   final long position) throws IOException {
+        while(buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+
+    // A strip's sorted run, read a buffer at a time while the runs are merged.
+    private final class Run {
+        private final ByteBuffer buffer =
+                ByteBuffer.allocate(RUN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final long end;
+        private long position;
+
+        Run(final long start, final long end) throws IOException {
+            this.end = end;
+            position = start;
+            buffer.limit(0);
+            next();
+        }
+
+        int elevation() {
+            return buffer.getInt(buffer.position());
+        }
+
+        long index() {
+            return buffer.getLong(buffer.position() + 4);
+        }
+
+        boolean isBefore(final Run other) {
+            return BandedSkiSolver.isBefore(elevation(), index(), other.elevation(),
+                    other.index());
+        }
+
+        void copyTo(final ByteBuffer out) {
+            out.put(buffer.array(), buffer.position(), CELL_SIZE);
+        }
+
+        // Moves on to the next cell, false once there is none.
+        boolean next() throws IOException {
+            if(buffer.remaining() > CELL_SIZE) {
+                buffer.position(buffer.position() + CELL_SIZE);
+                return true;
+            }
+            if(position == end)
+                return false;
+            final int bytes = (int) Math.min(RUN_BUFFER_SIZE, end - position);
+            readFully(runs.getChannel(), buffer, position, bytes);
+            position += bytes;
+            return true;
+        }
+    }
+
+    // A strip's elevations as a grid, for the sort.
+    private static class Strip extends Grid {
+        private final int[] cells;
+
+        Strip(final int rows, final int cols, final int[] cells) {
+            super(rows, cols);
+            this.cells = cells;
+        }
+
+        @Override
+        public int get(final int index) {
+            return cells[index];
+        }
+
+        @Override
+        public void set(final int index, final int value) {
+            cells[index] = value;
+        }
+
+        @Override
+        public Grid newLayer() {
+            return new IntGrid(rows, cols);
+        }
+    }
+}
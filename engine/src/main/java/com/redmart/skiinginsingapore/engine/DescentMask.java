@@ -0,0 +1,122 @@
+package com.redmart.skiinginsingapore.engine;
+
+/**
+ * Which neighbours of each cell are strictly lower, as a byte per cell, worked out in one pass
+ * over the map before the search: bits {@link #RIGHT}, {@link #LEFT}, {@link #DOWN} and
+ * {@link #UP} in the order the solver tries them, and {@link #PEAK} for a cell with no strictly
+ * higher neighbour, the cells {@link SkiSolver} starts its runs from.
+ *
+ * The pass goes row by row over plain int rows with loops free of branches and bounds checks,
+ * the edges of the map being handled by padding, which is the shape the JIT vectorizes.
+ */
+public final class DescentMask {
+    public static final int RIGHT = 1;
+    public static final int LEFT = 1 << 1;
+    public static final int DOWN = 1 << 2;
+    public static final int UP = 1 << 3;
+    public static final int PEAK = 1 << 4;
+
+    private DescentMask() {
+    }
+
+    public static byte[] of(Grid grid) {
+        final byte[] masks = new byte[grid.size()];
+        fill(grid, masks);
+        return masks;
+    }
+
+    /**
+     * Works out the masks of the grid into the first grid.size() bytes of masks.
+     */
+    public static void fill(Grid grid, byte[] masks) {
+        final int rows = grid.getRows();
+        final int cols = grid.getCols();
+        if(rows == 0 || cols == 0)
+            return;
+        int[] above = new int[cols + 2];
+        int[] row = new int[cols + 2];
+        int[] below = new int[cols + 2];
+        load(grid, 0, row);
+        for(int x = 0; x < rows; x++) {
+            // The first and last rows stand in for the missing rows, equal cells never count.
+            if(x + 1 < rows)
+                load(grid, x + 1, below);
+            row(x > 0 ? above : row, row, x + 1 < rows ? below : row, masks, x * cols, cols);
+            final int[] swap = above;
+            above = row;
+            row = below;
+            below = swap;
+        }
+    }
+
+    // Reads row x into cells 1 to cols, with the edge cells repeated at 0 and cols + 1.
+    private static void load(Grid grid, final int x, final int[] row) {
+        final int cols = grid.getCols();
+        final int first = x * cols;
+        for(int y = 0; y < cols; y++)
+            row[y + 1] = grid.get(first + y);
+        row[0] = row[1];
+        row[cols + 1] = row[cols];
+    }
+
+    /**
+     * The masks of one row from padded copies of it and of the rows above and below it.
+     */
+    static void row(final int[] above, final int[] row, final int[] below, final byte[] masks,
+                    final int offset, final int cols) {
+        for(int y = 1; y <= cols; y++) {
+            final int value = row[y];
+            final int right = row[y + 1];
+            final int left = row[y - 1];
+            final int down = below[y];
+            final int up = above[y];
+            final int lower = less(right, value) | less(left, value) << 1 |
+                    less(down, value) << 2 | less(up, value) << 3;
+            final int higher = less(value, right) | less(value, left) |
+                    less(value, down) | less(value, up);
+            masks[offset + y - 1] = (byte) (lower | (higher ^ 1) << 4);
+        }
+    }
+
+    /**
+     * The mask of a single cell, for maps without a mask pass.
+     */
+    static int at(final Grid grid, final int i) {
+        final int cols = grid.getCols();
+        final int y = i % cols;
+        final int value = grid.get(i);
+        // A missing neighbour compares equal, as in the pass.
+        final int right = (y < cols - 1) ? grid.get(i + 1) : value;
+        final int left = (y > 0) ? grid.get(i - 1) : value;
+        final int down = (i + cols < grid.size()) ? grid.get(i + cols) : value;
+        final int up = (i >= cols) ? grid.get(i - cols) : value;
+        final int lower = less(right, value) | less(left, value) << 1 |
+                less(down, value) << 2 | less(up, value) << 3;
+        final int higher = less(value, right) | less(value, left) |
+                less(value, down) | less(value, up);
+        return lower | (higher ^ 1) << 4;
+    }
+
+    /**
+     * Works the masks of cell i and its neighbours out again after its elevation changed.
+     */
+    static void update(final Grid grid, final byte[] masks, final int i) {
+        final int cols = grid.getCols();
+        final int y = i % cols;
+        masks[i] = (byte) at(grid, i);
+        if(y < cols - 1)
+            masks[i + 1] = (byte) at(grid, i + 1);
+        if(y > 0)
+            masks[i - 1] = (byte) at(grid, i - 1);
+        if(i + cols < grid.size())
+            masks[i + cols] = (byte) at(grid, i + cols);
+        if(i >= cols)
+            masks[i - cols] = (byte) at(grid, i - cols);
+    }
+
+    // 1 if a < b and 0 otherwise, without a branch and without overflowing.
+    private static int less(final int a, final int b) {
+        final int difference = a - b;
+        return (difference ^ ((a ^ b) & (difference ^ a))) >>> 31;
+    }
+}
@@ -0,0 +1,193 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.util.Arrays;
+
+/**
+ * Elevation counts of a grid, gathered cell by cell so {@link ElevationOrder} can skip its own
+ * counting passes. Values are counted one by one while their range stays narrow enough for a
+ * counting sort; past that the counts are folded into the four byte-digit histograms of the
+ * radix sort.
+ */
+public final class ElevationHistogram {
+    private static final int INITIAL_RANGE = 1024;
+
+    private final int maxRange;
+    private long cells;
+    private int min;
+    private int max;
+    // counts[value - base] while the range is narrow, null once it went wide.
+    private int[] counts;
+    private int base;
+    // digits[d][b]: cells whose radix key has byte b at digit d, only once the range went wide.
+    private int[][] digits;
+
+    /**
+     * A histogram for a grid of size cells.
+     */
+    public ElevationHistogram(final int size) {
+        maxRange = Math.max(size, ElevationOrder.COUNTING_SORT_RANGE);
+    }
+
+    /**
+     * Counts every cell of the grid in one go.
+     */
+    public static ElevationHistogram of(Grid grid) {
+        ElevationHistogram histogram = new ElevationHistogram(grid.size());
+        histogram.recount(grid);
+        return histogram;
+    }
+
+    /**
+     * Counts every cell of the grid in one go, over whatever was counted before and into the
+     * same buffers where they are large enough, e.g. for one strip of a map after the other.
+     */
+    void recount(Grid grid) {
+        final int size = grid.size();
+        cells = 0;
+        if(size == 0)
+            return;
+        int min = grid.get(0);
+        int max = min;
+        for(int i = 1; i < size; i++) {
+            final int value = grid.get(i);
+            if(value < min)
+                min = value;
+            else if(value > max)
+                max = value;
+        }
+        // Sized up front so a narrow map is never regrown or folded on the way.
+        final long range = (long) max - min + 1;
+        if(range <= maxRange) {
+            if(counts == null || counts.length < range)
+                counts = new int[(int) range];
+            else
+                Arrays.fill(counts, 0);
+            base = min;
+        } else {
+            counts = null;
+            if(digits == null)
+                digits = new int[4][256];
+            else
+                for(int[] digit : digits)
+                    Arrays.fill(digit, 0);
+        }
+        add(grid, 0, size);
+    }
+
+    /**
+     * Counts the cells from index from (inclusive) to index to (exclusive).
+     */
+    public void add(Grid grid, final int from, final int to) {
+        for(int i = from; i < to; i++)
+            add(grid.get(i));
+    }
+
+    public void add(final int value) {
+        if(cells == 0) {
+            min = value;
+            max = value;
+            if(digits == null && counts == null) {
+                counts = new int[INITIAL_RANGE];
+                base = value - INITIAL_RANGE / 2;
+                if(base > value)
+                    base = Integer.MIN_VALUE;
+                else if(base + INITIAL_RANGE - 1 < value)
+                    base = Integer.MAX_VALUE - INITIAL_RANGE + 1;
+            }
+        } else if(value < min) {
+            min = value;
+        } else if(value > max) {
+            max = value;
+        }
+        cells++;
+
+        if(counts != null) {
+            final long slot = (long) value - base;
+            if(slot >= 0 && slot < counts.length) {
+                counts[(int) slot]++;
+                return;
+            }
+            if(!regrow())
+                fold();
+            else {
+                counts[value - base]++;
+                return;
+            }
+        }
+        final int key = value ^ Integer.MAX_VALUE;
+        digits[0][key & 0xFF]++;
+        digits[1][(key >>> 8) & 0xFF]++;
+        digits[2][(key >>> 16) & 0xFF]++;
+        digits[3][key >>> 24]++;
+    }
+
+    // Widens the count window to cover min..max, false when that would go past maxRange.
+    private boolean regrow() {
+        final long range = (long) max - min + 1;
+        if(range > maxRange)
+            return false;
+        final int length = (int) Math.min(maxRange, Math.max(range, 2L * counts.length));
+        // Grow towards the side that overflowed, with the rest of the slack on the other one.
+        long start = (min < base) ? (long) max - length + 1 : min;
+        start = Math.max(Integer.MIN_VALUE, Math.min(start, (long) Integer.MAX_VALUE - length + 1));
+        final int[] wider = new int[length];
+        final int offset = (int) ((long) base - start);
+        for(int k = 0; k < counts.length; k++)
+            if(counts[k] != 0)
+                wider[k + offset] = counts[k];
+        counts = wider;
+        base = (int) start;
+        return true;
+    }
+
+    // Turns the per value counts into radix digit counts, the value that overflowed is left to
+    // the caller.
+    private void fold() {
+        digits = new int[4][256];
+        for(int k = 0; k < counts.length; k++) {
+            final int count = counts[k];
+            if(count == 0)
+                continue;
+            final int key = (base + k) ^ Integer.MAX_VALUE;
+            digits[0][key & 0xFF] += count;
+            digits[1][(key >>> 8) & 0xFF] += count;
+            digits[2][(key >>> 16) & 0xFF] += count;
+            digits[3][key >>> 24] += count;
+        }
+        counts = null;
+    }
+
+    public long getCells() {
+        return cells;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * True while the values are counted one by one, i.e. the map will be counting sorted.
+     */
+    boolean isNarrow() {
+        return counts != null;
+    }
+
+    /**
+     * Cells of the given value, only while the histogram is narrow.
+     */
+    int count(final int value) {
+        final long slot = (long) value - base;
+        return (slot >= 0 && slot < counts.length) ? counts[(int) slot] : 0;
+    }
+
+    /**
+     * Byte-digit counts of the radix keys, only once the histogram went wide.
+     */
+    int[] digitCounts(final int digit) {
+        return digits[digit];
+    }
+}
@@ -0,0 +1,118 @@
+package com.redmart.skiinginsingapore.engine;
+
+/**
+ * Orders the cells of a grid from the highest elevation to the lowest, cells of equal
+ * elevation keep their row order. Narrow elevation ranges are counting sorted, wide ones go
+ * through an LSD radix sort a byte at a time; both are O(rows x cols) and work on int arrays
+ * only.
+ */
+public final class ElevationOrder {
+    static final int COUNTING_SORT_RANGE = 1 << 16;
+
+    private ElevationOrder() {
+    }
+
+    public static int[] descending(Grid grid) {
+        if(grid.size() == 0)
+            return new int[0];
+        return descending(grid, ElevationHistogram.of(grid));
+    }
+
+    /**
+     * Orders the grid from counts already gathered over all of its cells, e.g. while it was
+     * being parsed.
+     */
+    public static int[] descending(Grid grid, ElevationHistogram histogram) {
+        final int size = grid.size();
+        if(size == 0)
+            return new int[0];
+        checkCells(grid, histogram);
+        if(histogram.isNarrow())
+            return countingSort(grid, histogram, new int[size], null);
+        return radixSort(grid, histogram, new int[size], new int[size], new int[size],
+                new int[size]);
+    }
+
+    /**
+     * Orders the grid into the workspace's order buffer, which may be longer than the grid:
+     * only its first grid.size() cells are the order. The buffer is the workspace's, the next
+     * order taken from it overwrites this one.
+     */
+    public static int[] descending(Grid grid, ElevationHistogram histogram,
+                                   SolverWorkspace workspace) {
+        final int size = grid.size();
+        checkCells(grid, histogram);
+        final int[] order = workspace.order(size);
+        if(size == 0)
+            return order;
+        if(histogram.isNarrow())
+            return countingSort(grid, histogram, order, workspace);
+        final int[] sorted = radixSort(grid, histogram, order, workspace.spareOrder(size),
+                workspace.keys(size), workspace.spareKeys(size));
+        workspace.sortedInto(sorted);
+        return sorted;
+    }
+
+    private static void checkCells(Grid grid, ElevationHistogram histogram) {
+        if(histogram.getCells() != grid.size())
+            throw new IllegalArgumentException("Histogram covers " + histogram.getCells() +
+                    " of " + grid.size() + " cells");
+    }
+
+    private static int[] countingSort(Grid grid, ElevationHistogram histogram, int[] order,
+                                      SolverWorkspace workspace) {
+        final int size = grid.size();
+        final int max = histogram.getMax();
+        final int range = (int) ((long) max - histogram.getMin() + 1);
+        final int[] starts = (workspace != null) ? workspace.starts(range) : new int[range];
+        int position = 0;
+        for(int k = 0; k < range; k++) {
+            starts[k] = position;
+            position += histogram.count(max - k);
+        }
+
+        for(int i = 0; i < size; i++)
+            order[starts[max - grid.get(i)]++] = i;
+        return order;
+    }
+
+    // Sorts through two pairs of buffers of at least size cells, returns the order's buffer.
+    private static int[] radixSort(Grid grid, ElevationHistogram histogram, int[] order,
+                                   int[] nextOrder, int[] keys, int[] nextKeys) {
+        final int size = grid.size();
+        // Flipping every bit but the sign one turns descending signed values into
+        // ascending unsigned keys.
+        for(int i = 0; i < size; i++) {
+            order[i] = i;
+            keys[i] = grid.get(i) ^ Integer.MAX_VALUE;
+        }
+
+        final int[] counts = new int[256];
+        for(int shift = 0; shift < 32; shift += 8) {
+            // Digit counts don't depend on the order, so the histogram's hold for every pass.
+            System.arraycopy(histogram.digitCounts(shift / 8), 0, counts, 0, 256);
+            if(counts[(keys[0] >>> shift) & 0xFF] == size)
+                continue;
+
+            int position = 0;
+            for(int k = 0; k < 256; k++) {
+                final int count = counts[k];
+                counts[k] = position;
+                position += count;
+            }
+            for(int i = 0; i < size; i++) {
+                final int target = counts[(keys[i] >>> shift) & 0xFF]++;
+                nextOrder[target] = order[i];
+                nextKeys[target] = keys[i];
+            }
+
+            int[] swap = order;
+            order = nextOrder;
+            nextOrder = swap;
+            swap = keys;
+            keys = nextKeys;
+            nextKeys = swap;
+        }
+        return order;
+    }
+}
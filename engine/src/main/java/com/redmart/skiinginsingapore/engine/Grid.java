@@ -0,0 +1,93 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.IOException;
+
+/**
+ * Rows x cols cells of ints addressed row by row, cell (x, y) lives at index x*cols + y.
+ * Used for the elevation map and for the solver's per-cell state.
+ */
+public abstract class Grid {
+
+    /**
+     * Allocates the grid a map is parsed or loaded into.
+     */
+    public interface Factory {
+        public Grid create(int rows, int cols) throws IOException;
+    }
+
+    public static final Factory HEAP = new Factory() {
+        @Override
+        public Grid create(int rows, int cols) {
+            return new IntGrid(rows, cols);
+        }
+    };
+
+    protected final int rows;
+    protected final int cols;
+
+    protected Grid(final int rows, final int cols) {
+        if(rows < 0 || cols < 0 || (long) rows * cols > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Bad grid size " + rows + "x" + cols);
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    public static Grid of(final int[][] map) {
+        final int rows = map.length;
+        final int cols = (rows > 0) ? map[0].length : 0;
+        Grid grid = new IntGrid(rows, cols);
+        for(int x = 0; x < rows; x++)
+            for(int y = 0; y < cols; y++)
+                grid.set(x, y, map[x][y]);
+        return grid;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int size() {
+        return rows * cols;
+    }
+
+    public int index(final int x, final int y) {
+        return x * cols + y;
+    }
+
+    public int getX(final int index) {
+        return index / cols;
+    }
+
+    public int getY(final int index) {
+        return index % cols;
+    }
+
+    public abstract int get(int index);
+
+    public abstract void set(int index, int value);
+
+    /**
+     * Returns a zeroed grid of the same shape, kept in the same kind of storage.
+     */
+    public abstract Grid newLayer() throws IOException;
+
+    public int get(final int x, final int y) {
+        return get(x * cols + y);
+    }
+
+    public void set(final int x, final int y, final int value) {
+        set(x * cols + y, value);
+    }
+
+    /**
+     * Copies count values into consecutive cells starting at index.
+     */
+    public void set(final int index, final int[] values, final int offset, final int count) {
+        for(int k = 0; k < count; k++)
+            set(index + k, values[offset + k]);
+    }
+}
@@ -0,0 +1,187 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A solver that stays solved while single elevations change.
+ *
+ * A new elevation can only change the runs of the cell itself, of its four neighbours (whose
+ * lower neighbours may have changed) and of the cells uphill of those. They are re-settled
+ * from the lowest up, and the climb stops wherever a cell's run comes out the same as before,
+ * so an edit costs the part of its uphill cone whose runs really changed.
+ *
+ * The best run is kept in a tournament tree over blocks of {@link #BLOCK} cells, re-played
+ * only along the blocks an edit touched. Ties are resolved like {@link SkiSolver#solve()}:
+ * length, drop, higher start and then the lowest index.
+ */
+public class IncrementalSkiSolver extends SkiSolver {
+    static final int BLOCK = 64;
+
+    private final int cols;
+    private final int size;
+    private final int blocks;
+    // tree[blocks + b] is the best cell of block b, tree[k] the better of tree[2k] and tree[2k+1].
+    private final int[] tree;
+    private boolean solved;
+    private long[] queue;
+    private int queued;
+    private int[] touched;
+    private int touchedCount;
+
+    /**
+     * Edits are written to the grid, which must not be a read-only mapping.
+     */
+    public IncrementalSkiSolver(Grid grid) throws IOException {
+        super(grid);
+        cols = grid.getCols();
+        size = grid.size();
+        blocks = (size + BLOCK - 1) / BLOCK;
+        tree = new int[2 * Math.max(blocks, 1)];
+        queue = new long[64];
+        touched = new int[16];
+    }
+
+    @Override
+    public Result solve() {
+        for(int i = 0; i < size; i++)
+            offer(i);
+        for(int b = 0; b < blocks; b++)
+            tree[blocks + b] = blockBest(b);
+        for(int k = blocks - 1; k > 0; k--)
+            tree[k] = better(tree[2 * k], tree[2 * k + 1]);
+        if(blocks > 0)
+            setBest(tree[1]);
+        solved = true;
+        return getResult();
+    }
+
+    /**
+     * Sets the elevation of cell (x, y), re-solves the runs it changes and returns the new
+     * best run of the map.
+     */
+    public Result updateElevation(final int x, final int y, final int value) {
+        if(x < 0 || y < 0 || x >= getGrid().getRows() || y >= cols)
+            throw new IndexOutOfBoundsException("No cell (" + x + ", " + y + ")");
+        if(!solved)
+            solve();
+        final Grid grid = getGrid();
+        final int cell = grid.index(x, y);
+        if(elevation(cell) == value)
+            return getResult();
+
+        grid.set(cell, value);
+        elevationChanged(cell);
+        touchedCount = 0;
+        touch(cell);
+        push(cell);
+        if(y < cols-1)
+            push(cell+1);
+        if(y > 0)
+            push(cell-1);
+        if(cell + cols < size)
+            push(cell+cols);
+        if(cell >= cols)
+            push(cell-cols);
+
+        long last = Long.MIN_VALUE;
+        while(queued > 0) {
+            final long entry = pop();
+            // A cell queued by several lower neighbours comes out several times in a row.
+            if(entry == last)
+                continue;
+            last = entry;
+            final int i = (int) entry;
+            final int length = getLength(i);
+            final int droppingTo = getDroppingTo(i);
+            settle(i);
+            if(getLength(i) == length && getDroppingTo(i) == droppingTo)
+                continue;
+            touch(i);
+            // The cells uphill of i are the ones it is a lower neighbour of.
+            final int iy = i % cols;
+            if(iy < cols-1 && (mask(i+1) & DescentMask.LEFT) != 0)
+                push(i+1);
+            if(iy > 0 && (mask(i-1) & DescentMask.RIGHT) != 0)
+                push(i-1);
+            if(i + cols < size && (mask(i+cols) & DescentMask.UP) != 0)
+                push(i+cols);
+            if(i >= cols && (mask(i-cols) & DescentMask.DOWN) != 0)
+                push(i-cols);
+        }
+
+        replay();
+        return getResult();
+    }
+
+    // Re-plays the blocks of every touched cell up to the root of the tree.
+    private void replay() {
+        Arrays.sort(touched, 0, touchedCount);
+        int previous = -1;
+        for(int t = 0; t < touchedCount; t++) {
+            final int b = touched[t] / BLOCK;
+            if(b == previous)
+                continue;
+            previous = b;
+            int k = blocks + b;
+            tree[k] = blockBest(b);
+            for(k >>= 1; k > 0; k >>= 1)
+                tree[k] = better(tree[2 * k], tree[2 * k + 1]);
+        }
+        setBest(tree[1]);
+    }
+
+    private int blockBest(final int b) {
+        final int end = Math.min(size, (b + 1) * BLOCK);
+        int best = b * BLOCK;
+        for(int i = best + 1; i < end; i++)
+            if(isBetter(i, best))
+                best = i;
+        return best;
+    }
+
+    private int better(final int i, final int other) {
+        return ranksAbove(other, i) ? other : i;
+    }
+
+    private void touch(final int i) {
+        if(touchedCount == touched.length)
+            touched = Arrays.copyOf(touched, touchedCount * 2);
+        touched[touchedCount++] = i;
+    }
+
+    // Min-heap of cells keyed by elevation then index, so lower cells are settled first.
+    private void push(final int i) {
+        if(queued == queue.length)
+            queue = Arrays.copyOf(queue, queued * 2);
+        final long entry = ((long) elevation(i) << 32) | i;
+        int k = queued++;
+        while(k > 0) {
+            final int parent = (k - 1) >> 1;
+            if(queue[parent] <= entry)
+                break;
+            queue[k] = queue[parent];
+            k = parent;
+        }
+        queue[k] = entry;
+    }
+
+    private long pop() {
+        final long top = queue[0];
+        final long entry = queue[--queued];
+        int k = 0;
+        while(true) {
+            int child = 2 * k + 1;
+            if(child >= queued)
+                break;
+            if(child + 1 < queued && queue[child + 1] < queue[child])
+                child++;
+            if(queue[child] >= entry)
+                break;
+            queue[k] = queue[child];
+            k = child;
+        }
+        queue[k] = entry;
+        return top;
+    }
+}
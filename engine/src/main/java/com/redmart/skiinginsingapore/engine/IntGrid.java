@@ -0,0 +1,57 @@
+package com.redmart.skiinginsingapore.engine;
+
+/**
+ * Grid held on the Java heap in a single int array.
+ */
+public class IntGrid extends Grid {
+    private final int[] cells;
+
+    public IntGrid(final int rows, final int cols) {
+        super(rows, cols);
+        cells = new int[rows * cols];
+    }
+
+    public IntGrid(final int rows, final int cols, final int[] cells) {
+        super(rows, cols);
+        if(cells.length != rows * cols)
+            throw new IllegalArgumentException("Grid of " + rows + "x" + cols +
+                    " can't hold " + cells.length + " cells");
+        this.cells = cells;
+    }
+
+    private IntGrid(final int[] cells, final int rows, final int cols) {
+        super(rows, cols);
+        this.cells = cells;
+    }
+
+    /**
+     * A grid over the first rows x cols cells of a buffer that may be longer, as the buffers
+     * of a {@link SolverWorkspace} are.
+     */
+    static IntGrid over(final int rows, final int cols, final int[] cells) {
+        if(cells.length < rows * cols)
+            throw new IllegalArgumentException("Grid of " + rows + "x" + cols +
+                    " can't fit " + cells.length + " cells");
+        return new IntGrid(cells, rows, cols);
+    }
+
+    @Override
+    public int get(final int index) {
+        return cells[index];
+    }
+
+    @Override
+    public void set(final int index, final int value) {
+        cells[index] = value;
+    }
+
+    @Override
+    public void set(final int index, final int[] values, final int offset, final int count) {
+        System.arraycopy(values, offset, cells, index, count);
+    }
+
+    @Override
+    public Grid newLayer() {
+        return new IntGrid(rows, cols);
+    }
+}
@@ -0,0 +1,143 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the text map format ("rows cols" followed by rows x cols elevations) byte by byte
+ * straight into a {@link Grid}. Numbers may be separated by any mix of spaces, tabs, CR and LF;
+ * no intermediate strings are created.
+ */
+public class MapParser {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Called every time a full row of the grid has been parsed.
+     */
+    public interface RowListener {
+        public void onRowParsed(Grid grid, int x);
+    }
+
+    private final InputStream in;
+    private final ByteBuffer source;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    private MapParser(InputStream in, ByteBuffer source) {
+        this.in = in;
+        this.source = source;
+        if(source != null && source.hasArray()) {
+            buffer = source.array();
+            position = source.arrayOffset() + source.position();
+            limit = source.arrayOffset() + source.limit();
+            source.position(source.limit());
+        } else {
+            buffer = new byte[BUFFER_SIZE];
+            position = 0;
+            limit = 0;
+        }
+    }
+
+    public static Grid parse(InputStream in) throws IOException {
+        return parse(in, null);
+    }
+
+    public static Grid parse(InputStream in, RowListener listener) throws IOException {
+        return parse(in, Grid.HEAP, listener);
+    }
+
+    public static Grid parse(InputStream in, Grid.Factory factory, RowListener listener)
+            throws IOException {
+        return new MapParser(in, null).parseGrid(factory, listener);
+    }
+
+    public static Grid parse(ByteBuffer source) throws IOException {
+        return parse(source, null);
+    }
+
+    public static Grid parse(ByteBuffer source, RowListener listener) throws IOException {
+        return parse(source, Grid.HEAP, listener);
+    }
+
+    public static Grid parse(ByteBuffer source, Grid.Factory factory, RowListener listener)
+            throws IOException {
+        return new MapParser(null, source).parseGrid(factory, listener);
+    }
+
+    private Grid parseGrid(Grid.Factory factory, RowListener listener) throws IOException {
+        final int rows = nextInt();
+        final int cols = nextInt();
+        if(rows < 0 || cols < 0 || (long) rows * cols > Integer.MAX_VALUE)
+            throw new IOException("Malformed map: bad size " + rows + "x" + cols);
+        Grid grid = factory.create(rows, cols);
+        int i = 0;
+        for(int x = 0; x < rows; x++) {
+            for(int y = 0; y < cols; y++)
+                grid.set(i++, nextInt());
+            if(listener != null)
+                listener.onRowParsed(grid, x);
+        }
+        return grid;
+    }
+
+    private int read() throws IOException {
+        if(position == limit && !fill())
+            return -1;
+        // Unsigned, so bytes from 0x80 up are characters and not the end of the data.
+        return buffer[position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int count = -1;
+        if(in != null)
+            count = in.read(buffer, 0, buffer.length);
+        else if(source.hasRemaining()) {
+            count = Math.min(source.remaining(), buffer.length);
+            source.get(buffer, 0, count);
+        }
+        if(count <= 0)
+            return false;
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    private static boolean isWhitespace(final int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int nextInt() throws IOException {
+        int c = read();
+        while(isWhitespace(c))
+            c = read();
+        if(c < 0)
+            throw new EOFException("Malformed map: unexpected end of data");
+
+        final boolean negative = (c == '-');
+        if(negative)
+            c = read();
+        if(c < '0' || c > '9')
+            throw new IOException("Malformed map: unexpected character '" + (char) c + "'");
+
+        // Accumulated as a negative number so Integer.MIN_VALUE still fits.
+        int value = 0;
+        do {
+            if(value < -214748364 || (value == -214748364 && c > '8'))
+                throw new IOException("Malformed map: number out of range");
+            value = value * 10 - (c - '0');
+            c = read();
+        } while(c >= '0' && c <= '9');
+
+        if(c >= 0 && !isWhitespace(c))
+            throw new IOException("Malformed map: unexpected character '" + (char) c + "'");
+        if(!negative) {
+            if(value == Integer.MIN_VALUE)
+                throw new IOException("Malformed map: number out of range");
+            return -value;
+        }
+        return value;
+    }
+}
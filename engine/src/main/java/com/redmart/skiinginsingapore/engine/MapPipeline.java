@@ -0,0 +1,162 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parses a text map as it arrives and gets the later stages' per-row work done in the
+ * meantime: the result cache key and the elevation histogram of the ordering stage are built
+ * on a second thread, a row behind the parser, so the parser never stops draining the stream.
+ * Once the last byte is in, only the ordering scatter and the search are left.
+ */
+public class MapPipeline {
+    private final Grid grid;
+    private final String key;
+    private final ElevationHistogram histogram;
+
+    private MapPipeline(Grid grid, String key, ElevationHistogram histogram) {
+        this.grid = grid;
+        this.key = key;
+        this.histogram = histogram;
+    }
+
+    public static MapPipeline parse(InputStream in) throws IOException {
+        return parse(in, Grid.HEAP, null);
+    }
+
+    /**
+     * Parses the map from the stream, the listener still hears about every parsed row on the
+     * parsing thread.
+     */
+    public static MapPipeline parse(InputStream in, Grid.Factory factory,
+                                    final MapParser.RowListener listener) throws IOException {
+        final RowWorker[] worker = new RowWorker[1];
+        Grid grid;
+        try {
+            grid = MapParser.parse(in, factory, new MapParser.RowListener() {
+                @Override
+                public void onRowParsed(Grid grid, int x) {
+                    if(worker[0] == null)
+                        worker[0] = RowWorker.start(grid);
+                    worker[0].rowParsed(x);
+                    if(listener != null)
+                        listener.onRowParsed(grid, x);
+                }
+            });
+        } catch(IOException e) {
+            if(worker[0] != null)
+                worker[0].abandon();
+            throw e;
+        } catch(RuntimeException e) {
+            if(worker[0] != null)
+                worker[0].abandon();
+            throw e;
+        }
+
+        // Maps without cells never report a row.
+        RowWorker rows = worker[0];
+        if(rows == null) {
+            rows = new RowWorker(grid);
+            rows.run();
+        }
+        rows.join();
+        return new MapPipeline(grid, rows.key.build(), rows.histogram);
+    }
+
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * The map's {@link ResultCache} key.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public ElevationHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * The cells from the highest to the lowest, as {@link ElevationOrder#descending(Grid)}.
+     */
+    public int[] order() {
+        return ElevationOrder.descending(grid, histogram);
+    }
+
+    // Follows the parser a row behind, parked whenever it has caught up.
+    private static class RowWorker implements Runnable {
+        private final Grid grid;
+        private final ResultCache.KeyBuilder key;
+        private final ElevationHistogram histogram;
+        private volatile int parsedRows;
+        private volatile boolean abandoned;
+        private volatile Thread thread;
+        private RuntimeException failure;
+
+        RowWorker(Grid grid) {
+            this.grid = grid;
+            key = new ResultCache.KeyBuilder(grid.getRows(), grid.getCols());
+            histogram = new ElevationHistogram(grid.size());
+        }
+
+        static RowWorker start(Grid grid) {
+            RowWorker worker = new RowWorker(grid);
+            Thread thread = new Thread(worker, "MapPipeline");
+            thread.setDaemon(true);
+            worker.thread = thread;
+            thread.start();
+            return worker;
+        }
+
+        void rowParsed(final int x) {
+            parsedRows = x + 1;
+            LockSupport.unpark(thread);
+        }
+
+        void abandon() {
+            abandoned = true;
+            LockSupport.unpark(thread);
+        }
+
+        void join() throws IOException {
+            if(thread != null) {
+                try {
+                    thread.join();
+                } catch(InterruptedException e) {
+                    abandon();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while finishing the map");
+                }
+            }
+            if(failure != null)
+                throw failure;
+        }
+
+        @Override
+        public void run() {
+            final int rows = grid.getRows();
+            final int cols = grid.getCols();
+            if(thread == null)
+                parsedRows = rows;
+            try {
+                int done = 0;
+                while(done < rows && !abandoned) {
+                    final int ready = parsedRows;
+                    if(ready == done) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    key.add(grid, done * cols, ready * cols);
+                    histogram.add(grid, done * cols, ready * cols);
+                    done = ready;
+                }
+            } catch(RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Grid kept outside the Java heap, either in memory-mapped files or in direct buffers, so maps
+ * of hundreds of millions of cells can be solved on a small heap and leave the paging to the OS.
+ * Cells are little-endian ints; the storage is split into regions of 2^28 cells because a
+ * single mapping can't exceed 2 GB.
+ */
+public class MappedGrid extends Grid implements Closeable {
+    static final int REGION_SHIFT = 28;
+    static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+
+    private final IntBuffer[] regions;
+    private final File file;
+    private final boolean ownsFile;
+
+    private MappedGrid(final int rows, final int cols, final IntBuffer[] regions,
+                       final File file, final boolean ownsFile) {
+        super(rows, cols);
+        this.regions = regions;
+        this.file = file;
+        this.ownsFile = ownsFile;
+    }
+
+    /**
+     * Maps rows x cols cells of the file starting at the given byte offset. The file is grown
+     * when needed, unless it is opened read only.
+     */
+    public static MappedGrid map(File file, long offset, int rows, int cols, boolean readOnly)
+            throws IOException {
+        return map(file, offset, rows, cols, readOnly, false);
+    }
+
+    /**
+     * Creates a zeroed grid in a temporary file of the directory, deleted again on close().
+     * A null directory stands for the default temporary one.
+     */
+    public static MappedGrid create(File directory, int rows, int cols) throws IOException {
+        File file = File.createTempFile("grid", ".cells", directory);
+        file.deleteOnExit();
+        return map(file, 0, rows, cols, false, true);
+    }
+
+    /**
+     * Creates a zeroed grid in direct buffers, outside the heap but without a backing file.
+     */
+    public static MappedGrid allocateDirect(int rows, int cols) {
+        final long size = (long) rows * cols;
+        IntBuffer[] regions = new IntBuffer[regionCount(size)];
+        for(int k = 0; k < regions.length; k++) {
+            final long cells = Math.min(size - ((long) k << REGION_SHIFT), 1L << REGION_SHIFT);
+            regions[k] = ByteBuffer.allocateDirect((int) cells * 4)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        return new MappedGrid(rows, cols, regions, null, false);
+    }
+
+    /**
+     * Factory for grids mapped from temporary files of the directory.
+     */
+    public static Grid.Factory factory(final File directory) {
+        return new Grid.Factory() {
+            @Override
+            public Grid create(int rows, int cols) throws IOException {
+                return MappedGrid.create(directory, rows, cols);
+            }
+        };
+    }
+
+    private static MappedGrid map(File file, long offset, int rows, int cols, boolean readOnly,
+                                  boolean ownsFile) throws IOException {
+        final long size = (long) rows * cols;
+        RandomAccessFile access = new RandomAccessFile(file, readOnly ? "r" : "rw");
+        try {
+            FileChannel channel = access.getChannel();
+            if(readOnly && channel.size() < offset + size * 4)
+                throw new IOException(file + " is too short for a " + rows + "x" + cols + " grid");
+            IntBuffer[] regions = new IntBuffer[regionCount(size)];
+            for(int k = 0; k < regions.length; k++) {
+                final long first = (long) k << REGION_SHIFT;
+                final long cells = Math.min(size - first, 1L << REGION_SHIFT);
+                regions[k] = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY :
+                                FileChannel.MapMode.READ_WRITE, offset + first * 4, cells * 4)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+            return new MappedGrid(rows, cols, regions, file, ownsFile);
+        } finally {
+            // The mappings stay valid once the channel is closed.
+            access.close();
+        }
+    }
+
+    private static int regionCount(final long size) {
+        return (int) ((size + REGION_MASK) >>> REGION_SHIFT);
+    }
+
+    @Override
+    public int get(final int index) {
+        return regions[index >>> REGION_SHIFT].get(index & REGION_MASK);
+    }
+
+    @Override
+    public void set(final int index, final int value) {
+        regions[index >>> REGION_SHIFT].put(index & REGION_MASK, value);
+    }
+
+    @Override
+    public void set(int index, final int[] values, int offset, int count) {
+        while(count > 0) {
+            IntBuffer region = regions[index >>> REGION_SHIFT];
+            final int start = index & REGION_MASK;
+            final int length = Math.min(count, region.capacity() - start);
+            region.position(start);
+            region.put(values, offset, length);
+            index += length;
+            offset += length;
+            count -= length;
+        }
+    }
+
+    /**
+     * File backed grids get their layers in temporary files next to them,
+     * direct ones in direct buffers.
+     */
+    @Override
+    public Grid newLayer() throws IOException {
+        if(file != null)
+            return create(file.getAbsoluteFile().getParentFile(), rows, cols);
+        return allocateDirect(rows, cols);
+    }
+
+    @Override
+    public void close() {
+        if(ownsFile)
+            file.delete();
+    }
+}
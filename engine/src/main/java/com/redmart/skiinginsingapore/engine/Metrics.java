@@ -0,0 +1,288 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where the time of a run goes: wall and CPU nanos per phase, and counters of the work done.
+ * Everything is lock-free and can be read from another thread while a run is going on, e.g.
+ * to sample progress on a timer. The solvers only report here every few thousand cells, so
+ * keeping metrics costs next to nothing in their loops.
+ *
+ * CPU nanos are those of the thread that timed the phase, work it handed to other threads
+ * (e.g. a parallel solve) only shows in the wall time.
+ */
+public class Metrics {
+
+    public enum Phase {
+        FETCH, PARSE, ORDER, SOLVE, RECONSTRUCT
+    }
+
+    /**
+     * CPU time of the calling thread, in nanos, or -1 where it can't be measured.
+     */
+    public interface CpuClock {
+        public long threadCpuNanos();
+    }
+
+    public static final CpuClock NO_CPU_CLOCK = new CpuClock() {
+        @Override
+        public long threadCpuNanos() {
+            return -1;
+        }
+    };
+
+    private static final int PHASES = Phase.values().length;
+
+    private final CpuClock cpuClock;
+    private final boolean cpuMeasured;
+    private final AtomicLongArray wallNanos = new AtomicLongArray(PHASES);
+    private final AtomicLongArray cpuNanos = new AtomicLongArray(PHASES);
+    private final AtomicLong cellsVisited = new AtomicLong();
+    private final AtomicLong memoHits = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicInteger peakPathLength = new AtomicInteger();
+    // The innermost timer running on each thread.
+    private final ThreadLocal<Timer> running = new ThreadLocal<Timer>();
+
+    /**
+     * Metrics with the JVM's thread CPU clock, if it has one.
+     */
+    public Metrics() {
+        this(defaultCpuClock());
+    }
+
+    public Metrics(CpuClock cpuClock) {
+        this.cpuClock = cpuClock;
+        cpuMeasured = cpuClock.threadCpuNanos() >= 0;
+    }
+
+    private static CpuClock defaultCpuClock() {
+        try {
+            return new ManagementCpuClock();
+        } catch(Throwable e) {
+            // No java.lang.management, e.g. on Android, or CPU time is switched off.
+            return NO_CPU_CLOCK;
+        }
+    }
+
+    private static class ManagementCpuClock implements CpuClock {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        ManagementCpuClock() {
+            if(!threads.isCurrentThreadCpuTimeSupported())
+                throw new UnsupportedOperationException("No thread CPU time");
+        }
+
+        @Override
+        public long threadCpuNanos() {
+            return threads.getCurrentThreadCpuTime();
+        }
+    }
+
+    /**
+     * A phase being timed, stop() adds its time to the phase's totals. A timer stopped on
+     * another thread than the one that started it only adds wall time. A phase timed while
+     * another one is being timed on the same thread is left out of the other one's time, e.g. a
+     * solver's path reconstruction out of the solve around it, so no time counts twice.
+     */
+    public class Timer {
+        private final Phase phase;
+        private final Thread thread;
+        private final Timer outer;
+        private final long wallStart;
+        private final long cpuStart;
+        private long innerWall;
+        private long innerCpu;
+        private volatile boolean stopped;
+
+        private Timer(Phase phase) {
+            this.phase = phase;
+            thread = Thread.currentThread();
+            Timer outer = running.get();
+            while(outer != null && outer.stopped)
+                outer = outer.outer;
+            this.outer = outer;
+            running.set(this);
+            cpuStart = cpuClock.threadCpuNanos();
+            wallStart = System.nanoTime();
+        }
+
+        public void stop() {
+            if(stopped)
+                return;
+            stopped = true;
+            final long wall = System.nanoTime() - wallStart;
+            wallNanos.addAndGet(phase.ordinal(), wall - innerWall);
+            if(Thread.currentThread() != thread)
+                return;
+            long cpu = -1;
+            if(cpuStart >= 0) {
+                cpu = cpuClock.threadCpuNanos() - cpuStart;
+                cpuNanos.addAndGet(phase.ordinal(), cpu - innerCpu);
+            }
+            if(outer != null) {
+                outer.innerWall += wall;
+                if(cpu >= 0)
+                    outer.innerCpu += cpu;
+            }
+            if(running.get() == this) {
+                if(outer != null)
+                    running.set(outer);
+                else
+                    running.remove();
+            }
+        }
+    }
+
+    /**
+     * Starts timing the phase on the calling thread.
+     */
+    public Timer start(Phase phase) {
+        return new Timer(phase);
+    }
+
+    public void addCellsVisited(long cells) {
+        cellsVisited.addAndGet(cells);
+    }
+
+    public void addMemoHits(long hits) {
+        memoHits.addAndGet(hits);
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    public void updatePeakPathLength(int length) {
+        int peak = peakPathLength.get();
+        while(length > peak && !peakPathLength.compareAndSet(peak, length))
+            peak = peakPathLength.get();
+    }
+
+    /**
+     * Cells settled so far, what progress samplers want.
+     */
+    public long getCellsVisited() {
+        return cellsVisited.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Counts the bytes read through the stream into bytesRead.
+     */
+    public InputStream count(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if(b >= 0)
+                    bytesRead.incrementAndGet();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                final int read = super.read(buffer, offset, count);
+                if(read > 0)
+                    bytesRead.addAndGet(read);
+                return read;
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                final long skipped = super.skip(count);
+                bytesRead.addAndGet(skipped);
+                return skipped;
+            }
+        };
+    }
+
+    public Snapshot snapshot() {
+        long[] wall = new long[PHASES];
+        long[] cpu = new long[PHASES];
+        for(int k = 0; k < PHASES; k++) {
+            wall[k] = wallNanos.get(k);
+            cpu[k] = cpuMeasured ? cpuNanos.get(k) : -1;
+        }
+        return new Snapshot(wall, cpu, cellsVisited.get(), memoHits.get(),
+                peakPathLength.get(), bytesRead.get());
+    }
+
+    /**
+     * The metrics at one point in time. Each value is read atomically, not all of them at once.
+     */
+    public static class Snapshot {
+        private final long[] wallNanos;
+        private final long[] cpuNanos;
+        public final long cellsVisited;
+        public final long memoHits;
+        public final int peakPathLength;
+        public final long bytesRead;
+
+        Snapshot(long[] wallNanos, long[] cpuNanos, long cellsVisited, long memoHits,
+                 int peakPathLength, long bytesRead) {
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.cellsVisited = cellsVisited;
+            this.memoHits = memoHits;
+            this.peakPathLength = peakPathLength;
+            this.bytesRead = bytesRead;
+        }
+
+        public long getWallNanos(Phase phase) {
+            return wallNanos[phase.ordinal()];
+        }
+
+        /**
+         * -1 where the CPU time couldn't be measured.
+         */
+        public long getCpuNanos(Phase phase) {
+            return cpuNanos[phase.ordinal()];
+        }
+
+        public long getTotalWallNanos() {
+            long total = 0;
+            for(long nanos : wallNanos)
+                total += nanos;
+            return total;
+        }
+
+        /**
+         * As a JSON object:
+         * <pre>
+         *   {"phases":{"fetch":{"wallNanos":0,"cpuNanos":0},"parse":{...},...},
+         *    "cellsVisited":16,"memoHits":21,"peakPathLength":5,"bytesRead":40}
+         * </pre>
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{\"phases\":{");
+            for(Phase phase : Phase.values()) {
+                if(phase.ordinal() > 0)
+                    json.append(',');
+                json.append('"').append(phase.name().toLowerCase(Locale.ROOT))
+                        .append("\":{\"wallNanos\":").append(wallNanos[phase.ordinal()])
+                        .append(",\"cpuNanos\":").append(cpuNanos[phase.ordinal()]).append('}');
+            }
+            return json.append("},\"cellsVisited\":").append(cellsVisited)
+                    .append(",\"memoHits\":").append(memoHits)
+                    .append(",\"peakPathLength\":").append(peakPathLength)
+                    .append(",\"bytesRead\":").append(bytesRead).append('}').toString();
+        }
+
+        @Override
+        public String toString() {
+            return toJson();
+        }
+    }
+}
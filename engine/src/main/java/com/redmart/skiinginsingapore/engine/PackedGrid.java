@@ -0,0 +1,272 @@
+package com.redmart.skiinginsingapore.engine;
+
+/**
+ * Grid on the Java heap that stores every cell as its offset from a base, in as few bits as the
+ * elevations seen so far need: a byte or a short per cell, or a plain int. Compact grids also
+ * pack N-bit codes into longs, e.g. 11 bits a cell for the RedMart sample map (0 to 1500),
+ * about a third of an int[]. Unpacking costs a solve about half again its time on such a map,
+ * while bytes and shorts read as fast as ints, so packing is for when memory is what runs out.
+ *
+ * The width grows while the grid is being filled: a value outside the current range re-encodes
+ * the cells set so far into a range twice as wide or more, centred on the elevations seen, so a
+ * map goes through a handful of re-encodings at most. A re-encoding builds new storage and
+ * swaps it in whole, so a reader following the writer row by row, as {@link MapPipeline} does,
+ * always reads the rows it was handed over correctly. Cells never set hold no particular value.
+ *
+ * The class is final, so solvers that know they hold one read it without a virtual call.
+ */
+public final class PackedGrid extends Grid {
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public Grid create(int rows, int cols) {
+            return new PackedGrid(rows, cols, false);
+        }
+    };
+
+    public static final Factory COMPACT = new Factory() {
+        @Override
+        public Grid create(int rows, int cols) {
+            return new PackedGrid(rows, cols, true);
+        }
+    };
+
+    private final boolean compact;
+    private Encoding encoding;
+    // Range of the values set so far and the end of the cells set so far.
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private int limit;
+
+    /**
+     * A grid of bytes to start with, only packing N-bit codes if compact.
+     */
+    public PackedGrid(final int rows, final int cols, final boolean compact) {
+        super(rows, cols);
+        this.compact = compact;
+        encoding = Encoding.create(rows * cols, 0, 8, null, 0);
+    }
+
+    /**
+     * Copies the grid into the narrowest storage its elevations fit.
+     */
+    public static PackedGrid of(final Grid grid, final boolean compact) {
+        final int size = grid.size();
+        int min = 0;
+        int max = 0;
+        for(int i = 0; i < size; i++) {
+            final int value = grid.get(i);
+            if(i == 0 || value < min)
+                min = value;
+            if(i == 0 || value > max)
+                max = value;
+        }
+        PackedGrid packed = new PackedGrid(grid.getRows(), grid.getCols(), compact);
+        packed.encoding = Encoding.create(size, min, widthFor((long) max - min, compact), null,
+                0);
+        for(int i = 0; i < size; i++)
+            packed.set(i, grid.get(i));
+        return packed;
+    }
+
+    /**
+     * Bits per cell: 8, 16 or 32, or when compact anything between 9 and 12 or 17 and 24.
+     */
+    public int getBitsPerCell() {
+        return encoding.bits;
+    }
+
+    @Override
+    public int get(final int index) {
+        return encoding.get(index);
+    }
+
+    @Override
+    public void set(final int index, final int value) {
+        Encoding e = encoding;
+        if(value < e.base || (long) value - e.base > e.mask) {
+            widen(value);
+            e = encoding;
+        }
+        if(value < min)
+            min = value;
+        if(value > max)
+            max = value;
+        if(index >= limit)
+            limit = index + 1;
+        e.put(index, value);
+    }
+
+    /**
+     * Returns a zeroed int grid, the solver's lengths and links need every bit.
+     */
+    @Override
+    public Grid newLayer() {
+        return new IntGrid(rows, cols);
+    }
+
+    private void widen(final int value) {
+        final long low = Math.min(min, value);
+        final long high = Math.max(max, value);
+        // At least twice as wide as before, so there are few re-encodings.
+        final long range = (limit == 0) ? high - low :
+                Math.max((1L << encoding.bits) * 2 - 1, high - low);
+        final int bits = widthFor(range, compact);
+        // Centred, so values on either side of the ones seen so far fit as well.
+        final long slack = (bits == 32) ? 0 : (1L << bits) - (high - low + 1);
+        long base = low - slack / 2;
+        base = Math.max(base, Integer.MIN_VALUE);
+        base = Math.min(base, Integer.MAX_VALUE - ((1L << bits) - 1));
+        encoding = Encoding.create(size(), (int) base, bits, encoding, limit);
+    }
+
+    // Storage width for codes up to range: packing only pays when it saves a quarter or more.
+    static int widthFor(final long range, final boolean compact) {
+        final int bits = 64 - Long.numberOfLeadingZeros(range);
+        if(bits <= 8)
+            return 8;
+        if(compact && bits <= 12)
+            return bits;
+        if(bits <= 16)
+            return 16;
+        if(compact && bits <= 24)
+            return bits;
+        return 32;
+    }
+
+    // The cells of one width and base. Every width has its own final class, so the one a grid
+    // is read through inlines into the solver's loop without a switch on the width.
+    private abstract static class Encoding {
+        final int base;
+        final int bits;
+        final long mask;
+
+        Encoding(final int base, final int bits) {
+            this.base = base;
+            this.bits = bits;
+            mask = (1L << bits) - 1;
+        }
+
+        // Cells of the width, filled with the first count cells of the previous encoding.
+        static Encoding create(final int size, final int base, final int bits,
+                               final Encoding previous, final int count) {
+            final Encoding encoding;
+            switch(bits) {
+                case 8:
+                    encoding = new ByteEncoding(size, base);
+                    break;
+                case 16:
+                    encoding = new ShortEncoding(size, base);
+                    break;
+                case 32:
+                    encoding = new IntEncoding(size);
+                    break;
+                default:
+                    encoding = new CodeEncoding(size, base, bits);
+            }
+            for(int i = 0; i < count; i++) {
+                // Cells never set may fall outside the new range, any value will do for them.
+                final long value = previous.get(i);
+                encoding.put(i, (int) Math.max(base, Math.min(base + encoding.mask, value)));
+            }
+            return encoding;
+        }
+
+        abstract int get(int index);
+
+        abstract void put(int index, int value);
+    }
+
+    private static final class ByteEncoding extends Encoding {
+        private final byte[] bytes;
+
+        ByteEncoding(final int size, final int base) {
+            super(base, 8);
+            bytes = new byte[size];
+        }
+
+        @Override
+        int get(final int index) {
+            return (bytes[index] & 0xFF) + base;
+        }
+
+        @Override
+        void put(final int index, final int value) {
+            bytes[index] = (byte) (value - base);
+        }
+    }
+
+    private static final class ShortEncoding extends Encoding {
+        private final short[] shorts;
+
+        ShortEncoding(final int size, final int base) {
+            super(base, 16);
+            shorts = new short[size];
+        }
+
+        @Override
+        int get(final int index) {
+            return (shorts[index] & 0xFFFF) + base;
+        }
+
+        @Override
+        void put(final int index, final int value) {
+            shorts[index] = (short) (value - base);
+        }
+    }
+
+    private static final class IntEncoding extends Encoding {
+        private final int[] ints;
+
+        IntEncoding(final int size) {
+            // Every int fits, whatever base the width was asked for with.
+            super(Integer.MIN_VALUE, 32);
+            ints = new int[size];
+        }
+
+        @Override
+        int get(final int index) {
+            return ints[index];
+        }
+
+        @Override
+        void put(final int index, final int value) {
+            ints[index] = value;
+        }
+    }
+
+    // N-bit codes packed into longs, a code straddling two of them where it has to.
+    private static final class CodeEncoding extends Encoding {
+        private final long[] words;
+
+        CodeEncoding(final int size, final int base, final int bits) {
+            super(base, bits);
+            // One spare word, so a read never has to check for the last one.
+            words = new long[(int) (((long) size * bits + 63) >>> 6) + 1];
+        }
+
+        @Override
+        int get(final int index) {
+            final long bit = (long) index * bits;
+            final int word = (int) (bit >>> 6);
+            final int shift = (int) bit & 63;
+            // The second word only adds bits when the code straddles the two.
+            final long code = (words[word] >>> shift) |
+                    ((words[word + 1] << 1) << (63 - shift));
+            return (int) (code & mask) + base;
+        }
+
+        @Override
+        void put(final int index, final int value) {
+            final long code = (long) value - base;
+            final long bit = (long) index * bits;
+            final int word = (int) (bit >>> 6);
+            final int shift = (int) bit & 63;
+            words[word] = (words[word] & ~(mask << shift)) | (code << shift);
+            if(shift + bits > 64) {
+                final int spilled = 64 - shift;
+                words[word + 1] = (words[word + 1] & ~(mask >>> spilled)) | (code >>> spilled);
+            }
+        }
+    }
+}
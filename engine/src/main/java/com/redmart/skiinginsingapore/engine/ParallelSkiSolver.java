@@ -0,0 +1,165 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Solves a map on a {@link ForkJoinPool} in waves of equal elevation, lowest first. A cell only
+ * depends on strictly lower neighbours, so every cell of a wave can be settled in parallel once
+ * the waves below it are done. Results are identical to the sequential {@link SkiSolver}.
+ *
+ * Waves never meet a solved cell twice, so there are no memo hits to report to
+ * {@link Metrics}; settled cells are reported per task, or per batch of small waves.
+ *
+ * Cancellation and the deadline are checked by every task and between waves. Out of time, the
+ * solve returns the best run among the cells settled so far: runs from the lower waves only,
+ * so a provisional result here is a weaker guess than the sequential solver's.
+ */
+public class ParallelSkiSolver extends SkiSolver {
+    static final int SEQUENTIAL_THRESHOLD = 4096;
+
+    private final ForkJoinPool pool;
+    // Set by tasks that stopped before settling their cells.
+    private volatile boolean skipped;
+
+    public ParallelSkiSolver(Grid grid, ForkJoinPool pool) throws IOException {
+        this(grid, pool, null);
+    }
+
+    public ParallelSkiSolver(Grid grid, ForkJoinPool pool, SolverWorkspace workspace)
+            throws IOException {
+        super(grid, workspace);
+        this.pool = pool;
+    }
+
+    @Override
+    public Result solve() {
+        return solve(ElevationOrder.descending(getGrid()));
+    }
+
+    /**
+     * Solves the map given its cells from the highest elevation to the lowest in the first
+     * count cells of the order, as produced by {@link ElevationOrder#descending(Grid)}.
+     */
+    @Override
+    public Result solve(final int[] order, final int count) {
+        final Grid grid = getGrid();
+        final Metrics metrics = getMetrics();
+        beginSolve();
+        skipped = false;
+        // Small waves are counted here and reported a batch at a time.
+        int settled = 0;
+        int unchecked = 0;
+        boolean outOfTime = false;
+        int end = count;
+        while(end > 0 && !outOfTime) {
+            final int level = elevation(order[end-1]);
+            int start = end - 1;
+            while(start > 0 && elevation(order[start-1]) == level)
+                start--;
+            if(end - start <= SEQUENTIAL_THRESHOLD) {
+                for(int k = start; k < end; k++)
+                    settle(order[k]);
+                settled += end - start;
+                unchecked += end - start;
+                if(metrics != null && settled >= METRICS_BATCH) {
+                    metrics.addCellsVisited(settled);
+                    settled = 0;
+                }
+                if(unchecked >= CHECK_INTERVAL) {
+                    unchecked = 0;
+                    checkCancelled();
+                    outOfTime = isOutOfTime();
+                }
+            } else {
+                pool.invoke(new SettleTask(order, start, end));
+                checkCancelled();
+                outOfTime = skipped || isOutOfTime();
+            }
+            end = start;
+        }
+        final boolean provisional = end > 0 || skipped;
+        setProvisional(provisional);
+        if(grid.size() > 0) {
+            // Cut short, the peaks may not be settled yet and the lower cells are all there is.
+            final int best = pool.invoke(new BestTask(0, grid.size(), !provisional));
+            setBest(best);
+            if(metrics != null) {
+                metrics.addCellsVisited(settled);
+                if(best >= 0)
+                    metrics.updatePeakPathLength(getLength(best));
+            }
+        }
+        return getResult();
+    }
+
+    private class SettleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] order;
+        private final int start;
+        private final int end;
+
+        SettleTask(int[] order, int start, int end) {
+            this.order = order;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start <= SEQUENTIAL_THRESHOLD) {
+                if(isCancelled() || isOutOfTime()) {
+                    skipped = true;
+                    return;
+                }
+                for(int k = start; k < end; k++)
+                    settle(order[k]);
+                if(getMetrics() != null)
+                    getMetrics().addCellsVisited(end - start);
+                return;
+            }
+            final int middle = (start + end) >>> 1;
+            invokeAll(new SettleTask(order, start, middle), new SettleTask(order, middle, end));
+        }
+    }
+
+    // Finds the best settled start of [start, end), or -1 if there is none, the earlier cell
+    // winning ties as in SkiSolver.solve(). Only peaks can win once the map is settled.
+    private class BestTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final boolean peaksOnly;
+
+        BestTask(int start, int end, boolean peaksOnly) {
+            this.start = start;
+            this.end = end;
+            this.peaksOnly = peaksOnly;
+        }
+
+        @Override
+        protected Integer compute() {
+            if(end - start <= SEQUENTIAL_THRESHOLD) {
+                int best = -1;
+                for(int i = start; i < end; i++)
+                    if(getLength(i) != 0 && (!peaksOnly || isPeak(i)) &&
+                            (best < 0 || isBetter(i, best)))
+                        best = i;
+                return best;
+            }
+            final int middle = (start + end) >>> 1;
+            BestTask left = new BestTask(start, middle, peaksOnly);
+            BestTask right = new BestTask(middle, end, peaksOnly);
+            right.fork();
+            final int leftBest = left.compute();
+            final int rightBest = right.join();
+            if(leftBest < 0 || rightBest < 0)
+                return Math.max(leftBest, rightBest);
+            return isBetter(rightBest, leftBest) ? rightBest : leftBest;
+        }
+    }
+}
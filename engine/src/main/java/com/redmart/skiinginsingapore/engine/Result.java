@@ -0,0 +1,61 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The longest and steepest run found on a map. A provisional result is the best run found
+ * before a solve ran out of time, a complete solve may still find a better one.
+ */
+public class Result {
+    public final int length;
+    public final int droppingFrom;
+    public final int droppingTo;
+    public final int startX;
+    public final int startY;
+    public final int[] path;
+    public final boolean provisional;
+
+    public Result(final int length, final int droppingFrom, final int droppingTo,
+                  final int startX, final int startY, final int[] path) {
+        this(length, droppingFrom, droppingTo, startX, startY, path, false);
+    }
+
+    public Result(final int length, final int droppingFrom, final int droppingTo,
+                  final int startX, final int startY, final int[] path,
+                  final boolean provisional) {
+        this.length = length;
+        this.droppingFrom = droppingFrom;
+        this.droppingTo = droppingTo;
+        this.startX = startX;
+        this.startY = startY;
+        this.path = path;
+        this.provisional = provisional;
+    }
+
+    public int getDrop() {
+        return droppingFrom - droppingTo;
+    }
+
+    /**
+     * Writes the elevations along the run, separated by the given string,
+     * without building the whole text in memory.
+     */
+    public void writePath(Writer out, String separator) throws IOException {
+        final char[] digits = new char[11];
+        for(int k = 0; k < path.length; k++) {
+            if(k > 0)
+                out.write(separator);
+            int value = path[k];
+            int position = digits.length;
+            final boolean negative = value < 0;
+            do {
+                digits[--position] = (char) ('0' + Math.abs(value % 10));
+                value /= 10;
+            } while(value != 0);
+            if(negative)
+                digits[--position] = '-';
+            out.write(digits, position, digits.length - position);
+        }
+    }
+}
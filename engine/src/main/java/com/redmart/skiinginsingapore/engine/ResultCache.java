@@ -0,0 +1,201 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Results kept on disk under the hash of the map they were found on, so the same map is never
+ * solved twice. Entries are evicted least recently used first once the directory grows past
+ * its size limit.
+ */
+public class ResultCache {
+    private static final String SUFFIX = ".result";
+    private static final int FORMAT = 1;
+
+    private final File directory;
+    private final long maxBytes;
+
+    public ResultCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * SHA-256 of the map size and elevations, as a hex string.
+     */
+    public static String key(Grid grid) {
+        KeyBuilder builder = new KeyBuilder(grid.getRows(), grid.getCols());
+        builder.add(grid, 0, grid.size());
+        return builder.build();
+    }
+
+    /**
+     * Computes {@link #key(Grid)} over a grid that fills up in index order, a range at a time.
+     */
+    public static class KeyBuilder {
+        private final MessageDigest digest;
+        private final byte[] chunk = new byte[64 * 1024];
+        private int position;
+
+        public KeyBuilder(int rows, int cols) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch(NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            position = putInt(chunk, position, rows);
+            position = putInt(chunk, position, cols);
+        }
+
+        /**
+         * Hashes the cells from index from (inclusive) to index to (exclusive).
+         */
+        public void add(Grid grid, final int from, final int to) {
+            for(int i = from; i < to; i++) {
+                if(position == chunk.length) {
+                    digest.update(chunk, 0, position);
+                    position = 0;
+                }
+                position = putInt(chunk, position, grid.get(i));
+            }
+        }
+
+        public String build() {
+            digest.update(chunk, 0, position);
+            position = 0;
+            final char[] hex = "0123456789abcdef".toCharArray();
+            final byte[] hash = digest.digest();
+            final char[] key = new char[hash.length * 2];
+            for(int k = 0; k < hash.length; k++) {
+                key[2 * k] = hex[(hash[k] >> 4) & 0xF];
+                key[2 * k + 1] = hex[hash[k] & 0xF];
+            }
+            return new String(key);
+        }
+    }
+
+    private static int putInt(final byte[] bytes, final int position, final int value) {
+        bytes[position] = (byte) value;
+        bytes[position + 1] = (byte) (value >> 8);
+        bytes[position + 2] = (byte) (value >> 16);
+        bytes[position + 3] = (byte) (value >> 24);
+        return position + 4;
+    }
+
+    /**
+     * Returns the cached result of the map of that many cells or null. Unreadable entries are
+     * dropped.
+     */
+    public Result get(String key, int cells) {
+        File file = new File(directory, key + SUFFIX);
+        if(!file.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if(in.readInt() != FORMAT)
+                    throw new IOException("Unknown result format");
+                final int length = in.readInt();
+                final int droppingFrom = in.readInt();
+                final int droppingTo = in.readInt();
+                final int startX = in.readInt();
+                final int startY = in.readInt();
+                final int count = in.readInt();
+                // A run never leaves the map, a corrupted count mustn't size the array.
+                if(count < 0 || count > cells)
+                    throw new IOException("Malformed result: bad path length " + count);
+                final int[] path = new int[count];
+                for(int k = 0; k < path.length; k++)
+                    path[k] = in.readInt();
+                file.setLastModified(System.currentTimeMillis());
+                return new Result(length, droppingFrom, droppingTo, startX, startY, path);
+            } finally {
+                in.close();
+            }
+        } catch(IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Only complete results can be stored, a provisional one would be served as final.
+     */
+    public void put(String key, Result result) throws IOException {
+        if(result.provisional)
+            throw new IllegalArgumentException("Provisional results can't be cached");
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+        File temporary = File.createTempFile("result", ".tmp", directory);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(FORMAT);
+            out.writeInt(result.length);
+            out.writeInt(result.droppingFrom);
+            out.writeInt(result.droppingTo);
+            out.writeInt(result.startX);
+            out.writeInt(result.startY);
+            out.writeInt(result.path.length);
+            for(int value : result.path)
+                out.writeInt(value);
+        } finally {
+            out.close();
+        }
+        File file = new File(directory, key + SUFFIX);
+        if(!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Can't store " + file);
+        }
+        evict();
+    }
+
+    // Drops the least recently used entries until the cache fits in maxBytes again.
+    private void evict() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if(files == null)
+            return;
+        long total = 0;
+        for(File file : files)
+            total += file.length();
+        if(total <= maxBytes)
+            return;
+
+        final long[] lastUsed = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for(int k = 0; k < files.length; k++) {
+            lastUsed[k] = files[k].lastModified();
+            order[k] = k;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return (lastUsed[lhs] < lastUsed[rhs]) ? -1 :
+                        ((lastUsed[lhs] == lastUsed[rhs]) ? 0 : 1);
+            }
+        });
+        for(int k = 0; k < order.length && total > maxBytes; k++) {
+            File file = files[order[k]];
+            final long length = file.length();
+            if(file.delete())
+                total -= length;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Queries over the per-cell runs of a solved map: the run from any cell in O(1), the best
+ * runs of the map and the best runs starting inside a rectangle. One solve then answers any
+ * number of queries.
+ *
+ * Runs are ranked like {@link SkiSolver#getResult()}: length, drop, higher start and then the
+ * lowest index.
+ */
+public class RunIndex {
+    private final SkiSolver solver;
+    private final Grid grid;
+
+    /**
+     * Indexes the solver's runs, solving whatever cells it hasn't solved yet. The index reads
+     * the solver's state, so it follows later edits made through an
+     * {@link IncrementalSkiSolver}.
+     */
+    public RunIndex(SkiSolver solver) {
+        this.solver = solver;
+        grid = solver.getGrid();
+        solver.solveAll();
+    }
+
+    public int lengthAt(final int x, final int y) {
+        return solver.getLength(cell(x, y));
+    }
+
+    public int dropAt(final int x, final int y) {
+        final int i = cell(x, y);
+        return grid.get(i) - solver.getDroppingTo(i);
+    }
+
+    /**
+     * The best run starting at (x, y), path included.
+     */
+    public Result runAt(final int x, final int y) {
+        return solver.resultAt(cell(x, y));
+    }
+
+    /**
+     * The k best distinct runs of the map, best first. Runs that are the tail of another cell's
+     * run are left out, so 9-5-3-2-1 is not followed by 5-3-2-1.
+     */
+    public List<Result> top(final int k) {
+        if(grid.size() == 0)
+            return new ArrayList<>();
+        // Marked afresh every time, edits may have rerouted the runs since.
+        final int size = grid.size();
+        BitSet tails = new BitSet(size);
+        for(int i = 0; i < size; i++) {
+            final int next = solver.getNext(i);
+            if(next >= 0)
+                tails.set(next);
+        }
+        return top(k, 0, 0, grid.getRows() - 1, grid.getCols() - 1, tails);
+    }
+
+    /**
+     * The k best runs starting inside the rectangle from (x0, y0) to (x1, y1), both corners
+     * included, best first.
+     */
+    public List<Result> top(final int k, final int x0, final int y0, final int x1, final int y1) {
+        return top(k, x0, y0, x1, y1, null);
+    }
+
+    /**
+     * The best run starting inside the rectangle from (x0, y0) to (x1, y1), both corners
+     * included.
+     */
+    public Result best(final int x0, final int y0, final int x1, final int y1) {
+        return top(1, x0, y0, x1, y1).get(0);
+    }
+
+    private int cell(final int x, final int y) {
+        if(x < 0 || y < 0 || x >= grid.getRows() || y >= grid.getCols())
+            throw new IndexOutOfBoundsException("No cell (" + x + ", " + y + ")");
+        return grid.index(x, y);
+    }
+
+    // Keeps the k best cells in a heap whose root is the worst of them, O(cells x log k).
+    private List<Result> top(final int k, final int x0, final int y0, final int x1, final int y1,
+                             final BitSet skip) {
+        if(k < 0)
+            throw new IllegalArgumentException("Negative k " + k);
+        cell(x0, y0);
+        cell(x1, y1);
+        if(x0 > x1 || y0 > y1)
+            throw new IllegalArgumentException("Empty rectangle");
+        List<Result> results = new ArrayList<>();
+        if(k == 0)
+            return results;
+
+        final int capacity = (int) Math.min(k, (long) (x1 - x0 + 1) * (y1 - y0 + 1));
+        final int[] heap = new int[capacity];
+        int count = 0;
+        for(int x = x0; x <= x1; x++) {
+            for(int i = grid.index(x, y0), end = grid.index(x, y1); i <= end; i++) {
+                if(skip != null && skip.get(i))
+                    continue;
+                if(count < capacity) {
+                    heap[count] = i;
+                    siftUp(heap, count++);
+                } else if(solver.ranksAbove(i, heap[0])) {
+                    heap[0] = i;
+                    siftDown(heap, 0, count);
+                }
+            }
+        }
+
+        final int[] ranked = new int[count];
+        for(int n = count; n > 0; n--) {
+            ranked[n - 1] = heap[0];
+            heap[0] = heap[n - 1];
+            siftDown(heap, 0, n - 1);
+        }
+        for(int i : ranked)
+            results.add(solver.resultAt(i));
+        return results;
+    }
+
+    private void siftUp(final int[] heap, int k) {
+        final int i = heap[k];
+        while(k > 0) {
+            final int parent = (k - 1) >> 1;
+            if(!solver.ranksAbove(heap[parent], i))
+                break;
+            heap[k] = heap[parent];
+            k = parent;
+        }
+        heap[k] = i;
+    }
+
+    private void siftDown(final int[] heap, int k, final int count) {
+        if(count == 0)
+            return;
+        final int i = heap[k];
+        while(true) {
+            int child = 2 * k + 1;
+            if(child >= count)
+                break;
+            if(child + 1 < count && solver.ranksAbove(heap[child], heap[child + 1]))
+                child++;
+            if(!solver.ranksAbove(i, heap[child]))
+                break;
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = i;
+    }
+}
@@ -0,0 +1,222 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Binary map format (.ski): a 32 byte header followed by the elevations as little-endian ints,
+ * row by row. The header holds, all little-endian ints:
+ * <pre>
+ *   magic "SKI1" | version | rows | cols | min | max | CRC32 of the payload | reserved
+ * </pre>
+ * The payload starts 32 bytes in, so it can be mapped as it is.
+ */
+public final class SkiFormat {
+    public static final int MAGIC = 0x31494B53; // "SKI1" read little-endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private SkiFormat() {
+    }
+
+    public static class Header {
+        public final int rows;
+        public final int cols;
+        public final int min;
+        public final int max;
+        public final int checksum;
+
+        public Header(int rows, int cols, int min, int max, int checksum) {
+            this.rows = rows;
+            this.cols = cols;
+            this.min = min;
+            this.max = max;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Converts a map from the text format into a .ski file.
+     */
+    public static Header convert(InputStream text, File file) throws IOException {
+        return write(MapParser.parse(text), file);
+    }
+
+    public static Header write(Grid grid, File file) throws IOException {
+        final int size = grid.size();
+        int min = (size > 0) ? grid.get(0) : 0;
+        int max = min;
+        CRC32 crc = new CRC32();
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = access.getChannel();
+            channel.truncate(0);
+            channel.position(HEADER_SIZE);
+            for(int i = 0; i < size; i++) {
+                final int value = grid.get(i);
+                if(value < min)
+                    min = value;
+                else if(value > max)
+                    max = value;
+                chunk.putInt(value);
+                if(!chunk.hasRemaining())
+                    flush(channel, chunk, crc);
+            }
+            flush(channel, chunk, crc);
+
+            Header header = new Header(grid.getRows(), grid.getCols(), min, max,
+                    (int) crc.getValue());
+            ByteBuffer bytes = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.putInt(MAGIC).putInt(VERSION).putInt(header.rows).putInt(header.cols)
+                    .putInt(header.min).putInt(header.max).putInt(header.checksum).putInt(0);
+            bytes.flip();
+            channel.position(0);
+            while(bytes.hasRemaining())
+                channel.write(bytes);
+            return header;
+        } finally {
+            access.close();
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer chunk, CRC32 crc) throws IOException {
+        chunk.flip();
+        crc.update(chunk.array(), 0, chunk.limit());
+        while(chunk.hasRemaining())
+            channel.write(chunk);
+        chunk.clear();
+    }
+
+    public static Header readHeader(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return readHeader(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static Header readHeader(InputStream in) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(readFully(in, new byte[HEADER_SIZE], HEADER_SIZE))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if(bytes.getInt() != MAGIC)
+            throw new IOException("Not a .ski map");
+        final int version = bytes.getInt();
+        if(version != VERSION)
+            throw new IOException("Unsupported .ski version " + version);
+        Header header = new Header(bytes.getInt(), bytes.getInt(), bytes.getInt(),
+                bytes.getInt(), bytes.getInt());
+        if(header.rows < 0 || header.cols < 0)
+            throw new IOException("Malformed .ski map: bad size " + header.rows + "x" + header.cols);
+        return header;
+    }
+
+    // Headers may describe maps of more cells than a Grid can hold, see BandedSkiSolver.
+    private static void checkGridSize(Header header) throws IOException {
+        if((long) header.rows * header.cols > Integer.MAX_VALUE)
+            throw new IOException("Map of " + header.rows + "x" + header.cols +
+                    " is too large for a grid");
+    }
+
+    /**
+     * Tells a .ski stream from a text one without consuming it, the stream must support mark().
+     */
+    public static boolean isSkiFormat(InputStream in) throws IOException {
+        in.mark(4);
+        try {
+            int magic = 0;
+            for(int k = 0; k < 4; k++) {
+                final int b = in.read();
+                if(b < 0)
+                    return false;
+                magic |= b << (8 * k);
+            }
+            return magic == MAGIC;
+        } finally {
+            in.reset();
+        }
+    }
+
+    public static Grid read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return read(in, Grid.HEAP);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a whole .ski map in one sequential pass, checking the payload against its checksum.
+     */
+    public static Grid read(InputStream in, Grid.Factory factory) throws IOException {
+        Header header = readHeader(in);
+        checkGridSize(header);
+        Grid grid = factory.create(header.rows, header.cols);
+        final int size = grid.size();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int[] values = new int[CHUNK_SIZE / 4];
+        CRC32 crc = new CRC32();
+        for(int i = 0; i < size; ) {
+            final int count = Math.min(size - i, values.length);
+            readFully(in, chunk, count * 4);
+            crc.update(chunk, 0, count * 4);
+            IntBuffer ints = ByteBuffer.wrap(chunk, 0, count * 4)
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            ints.get(values, 0, count);
+            grid.set(i, values, 0, count);
+            i += count;
+        }
+        if((int) crc.getValue() != header.checksum)
+            throw new IOException("Corrupted .ski map: checksum mismatch");
+        return grid;
+    }
+
+    /**
+     * Maps the payload read only, without reading it. The checksum is only checked on request,
+     * since that means touching every page once.
+     */
+    public static MappedGrid map(File file, boolean verify) throws IOException {
+        Header header = readHeader(file);
+        checkGridSize(header);
+        MappedGrid grid = MappedGrid.map(file, HEADER_SIZE, header.rows, header.cols, true);
+        if(verify) {
+            CRC32 crc = new CRC32();
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            final int size = grid.size();
+            for(int i = 0; i < size; i++) {
+                chunk.putInt(grid.get(i));
+                if(!chunk.hasRemaining() || i == size - 1) {
+                    crc.update(chunk.array(), 0, chunk.position());
+                    chunk.clear();
+                }
+            }
+            if((int) crc.getValue() != header.checksum)
+                throw new IOException("Corrupted .ski map: checksum mismatch");
+        }
+        return grid;
+    }
+
+    private static byte[] readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while(offset < length) {
+            final int count = in.read(buffer, offset, length - offset);
+            if(count < 0)
+                throw new EOFException("Malformed .ski map: unexpected end of data");
+            offset += count;
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,220 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Result raster (.skr): the best run of every cell of a solved map, for tools that want the
+ * whole field rather than the winning run. A 32 byte header, all little-endian ints:
+ * <pre>
+ *   magic "SKR1" | version | rows | cols | best length | best start x | best start y | reserved
+ * </pre>
+ * followed by three planes of rows x cols cells, row by row: the run lengths and the drops as
+ * little-endian ints, then a byte per cell for the direction of the run's next step, one of
+ * {@link #END}, {@link #RIGHT}, {@link #LEFT}, {@link #DOWN} and {@link #UP}. Every plane
+ * starts on a multiple of 4 bytes, so each can be mapped as it is; a cell the solver never
+ * settled, e.g. after a provisional solve, has length 0.
+ *
+ * The file is written front to back in one pass through mapped windows, and read back by
+ * {@link #open(File)} without copying.
+ */
+public final class SkiRaster implements Closeable {
+    public static final int MAGIC = 0x31524B53; // "SKR1" read little-endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    public static final byte END = 0;
+    public static final byte RIGHT = 1;
+    public static final byte LEFT = 2;
+    public static final byte DOWN = 3;
+    public static final byte UP = 4;
+
+    // Small enough to map on 32 bit devices too.
+    static final int WINDOW_BYTES = 1 << 26;
+
+    private final int rows;
+    private final int cols;
+    private final int bestLength;
+    private final int bestX;
+    private final int bestY;
+    private final MappedGrid lengths;
+    private final MappedGrid drops;
+    private final ByteBuffer directions;
+
+    private SkiRaster(int rows, int cols, int bestLength, int bestX, int bestY,
+                      MappedGrid lengths, MappedGrid drops, ByteBuffer directions) {
+        this.rows = rows;
+        this.cols = cols;
+        this.bestLength = bestLength;
+        this.bestX = bestX;
+        this.bestY = bestY;
+        this.lengths = lengths;
+        this.drops = drops;
+        this.directions = directions;
+    }
+
+    /**
+     * Writes the fields of the solver's map, which should have been solved, along with the
+     * best run of the result.
+     */
+    public static void write(SkiSolver solver, Result result, File file) throws IOException {
+        write(solver, result, file, WINDOW_BYTES);
+    }
+
+    static void write(SkiSolver solver, Result result, File file, int windowBytes)
+            throws IOException {
+        final Grid grid = solver.getGrid();
+        final int size = grid.size();
+        final int cols = grid.getCols();
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = access.getChannel();
+            channel.truncate(0);
+            Window out = new Window(channel, HEADER_SIZE + 9L * size, windowBytes);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(grid.getRows());
+            out.putInt(cols);
+            out.putInt(result.length);
+            out.putInt(result.startX);
+            out.putInt(result.startY);
+            out.putInt(0);
+            for(int i = 0; i < size; i++)
+                out.putInt(solver.getLength(i));
+            for(int i = 0; i < size; i++)
+                out.putInt((solver.getLength(i) == 0) ? 0 :
+                        solver.elevation(i) - solver.getDroppingTo(i));
+            for(int i = 0; i < size; i++) {
+                // Unsettled cells have no successor yet, whatever their layer holds.
+                final int next = (solver.getLength(i) == 0) ? -1 : solver.getNext(i);
+                // Down before right, with a single column the cell below is i + 1 too.
+                if(next < 0)
+                    out.put(END);
+                else if(next == i + cols)
+                    out.put(DOWN);
+                else if(next == i - cols)
+                    out.put(UP);
+                else if(next == i + 1)
+                    out.put(RIGHT);
+                else
+                    out.put(LEFT);
+            }
+        } finally {
+            access.close();
+        }
+    }
+
+    /**
+     * Maps a raster read only.
+     */
+    public static SkiRaster open(File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = access.getChannel();
+            if(channel.size() < HEADER_SIZE)
+                throw new IOException("Not a .skr raster");
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt() != MAGIC)
+                throw new IOException("Not a .skr raster");
+            final int version = header.getInt();
+            if(version != VERSION)
+                throw new IOException("Unsupported .skr version " + version);
+            final int rows = header.getInt();
+            final int cols = header.getInt();
+            if(rows < 0 || cols < 0 || (long) rows * cols > Integer.MAX_VALUE)
+                throw new IOException("Malformed .skr raster: bad size " + rows + "x" + cols);
+            final long size = (long) rows * cols;
+            if(channel.size() < HEADER_SIZE + 9 * size)
+                throw new IOException(file + " is too short for a " + rows + "x" + cols +
+                        " raster");
+            return new SkiRaster(rows, cols, header.getInt(), header.getInt(), header.getInt(),
+                    MappedGrid.map(file, HEADER_SIZE, rows, cols, true),
+                    MappedGrid.map(file, HEADER_SIZE + 4 * size, rows, cols, true),
+                    channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + 8 * size, size));
+        } finally {
+            // The mappings stay valid once the channel is closed.
+            access.close();
+        }
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getBestLength() {
+        return bestLength;
+    }
+
+    public int getBestX() {
+        return bestX;
+    }
+
+    public int getBestY() {
+        return bestY;
+    }
+
+    public int lengthAt(final int x, final int y) {
+        return lengths.get(x, y);
+    }
+
+    public int dropAt(final int x, final int y) {
+        return drops.get(x, y);
+    }
+
+    public byte directionAt(final int x, final int y) {
+        return directions.get(x * cols + y);
+    }
+
+    @Override
+    public void close() {
+        lengths.close();
+        drops.close();
+    }
+
+    // Writes the file front to back through one mapped window at a time.
+    private static class Window {
+        private final FileChannel channel;
+        private final long end;
+        private final int windowBytes;
+        private MappedByteBuffer buffer;
+        private long position;
+
+        Window(FileChannel channel, long end, int windowBytes) {
+            this.channel = channel;
+            this.end = end;
+            this.windowBytes = windowBytes;
+        }
+
+        void putInt(final int value) throws IOException {
+            if(buffer == null || buffer.remaining() < 4)
+                next();
+            buffer.putInt(value);
+        }
+
+        void put(final byte value) throws IOException {
+            if(buffer == null || !buffer.hasRemaining())
+                next();
+            buffer.put(value);
+        }
+
+        // Windows are a multiple of 4 bytes and so are the planes, no int straddles two.
+        private void next() throws IOException {
+            if(buffer != null)
+                position += buffer.capacity();
+            final long length = Math.min(windowBytes, end - position);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the longest (and then steepest) downhill run on an elevation map.
+ *
+ * Every cell is solved once: its best run is its own cell plus the best run of one of its
+ * strictly lower 4-neighbours, so the whole map costs O(rows x cols). Neighbours are tried
+ * right, left, down, up and a later one only wins when it is strictly better, which keeps
+ * the paths identical to the ones the original recursive search reported.
+ *
+ * Which neighbours are lower is worked out for the whole map up front, see {@link DescentMask},
+ * and only peaks are offered as starts: any other cell has a higher neighbour whose run is
+ * longer, and is solved on the way down from a peak anyway. The map must not change under the
+ * solver, other than through {@link IncrementalSkiSolver}.
+ *
+ * The descent is walked with an explicit stack of (cell, next direction) frames rather than
+ * recursion, so run length is bounded by the heap and not by the thread stack: each cell costs
+ * 17 bytes with the grid and its mask, each frame 5 bytes and each step of the reported path
+ * 4 bytes, e.g. about 2.6 GB for a 10,000 x 10,000 map whose single run covers every cell.
+ *
+ * With {@link #setMetrics(Metrics)} the solver counts the cells it settles and the solved
+ * cells it runs into, reported in batches of {@link #METRICS_BATCH} cells, and times the
+ * tracking of its result's path as {@link Metrics.Phase#RECONSTRUCT}.
+ *
+ * Every {@link #CHECK_INTERVAL} cells the solver checks whether it should stop: after
+ * {@link #cancel()} or an interrupt of the solving thread it throws a
+ * {@link CancellationException}, and once the deadline of {@link #setDeadline(long, TimeUnit)}
+ * has passed solve() returns the best run found so far as a provisional {@link Result}. Every
+ * cell settled before stopping stays solved, so solving again carries on where it stopped.
+ *
+ * Layers in temporary files, as a mapped map's are, are deleted by {@link #close()}.
+ */
+public class SkiSolver implements Closeable {
+    private static final int INITIAL_STACK = 1024;
+    static final int METRICS_BATCH = 4096;
+    static final int CHECK_INTERVAL = 4096;
+    private static final OutOfTime OUT_OF_TIME = new OutOfTime();
+
+    private final Grid grid;
+    private final PackedGrid packed;
+    private final int cols;
+    private final int size;
+    private final Grid length;
+    private final Grid droppingTo;
+    private final Grid next;
+    // Null for mapped maps solved without a workspace, their masks are worked out cell by cell.
+    private final byte[] masks;
+    private final int[] steps;
+    private final SolverWorkspace workspace;
+    private int[] stack;
+    private byte[] directions;
+    private int best;
+    private Metrics metrics;
+    // Counted in plain fields and handed to metrics in batches.
+    private int visits;
+    private long memoHits;
+    private int peakLength;
+    private volatile boolean cancelled;
+    private boolean hasDeadline;
+    private long deadline;
+    // The deadline only cuts solve() short, offers and queries always finish.
+    private boolean solving;
+    private boolean provisional;
+
+    /**
+     * The per-cell state is kept in layers of the same storage as the grid,
+     * see {@link Grid#newLayer()}.
+     */
+    public SkiSolver(Grid grid) throws IOException {
+        this(grid, null);
+    }
+
+    /**
+     * The per-cell state and the stack are kept in the workspace's buffers, on the heap
+     * whatever the grid's storage, or in new layers of the grid's storage without one.
+     */
+    public SkiSolver(Grid grid, SolverWorkspace workspace) throws IOException {
+        this.grid = grid;
+        this.workspace = workspace;
+        packed = (grid instanceof PackedGrid) ? (PackedGrid) grid : null;
+        cols = grid.getCols();
+        size = grid.size();
+        if(workspace != null) {
+            final Grid[] layers = workspace.layers(grid);
+            length = layers[0];
+            droppingTo = layers[1];
+            next = layers[2];
+            stack = workspace.stack();
+            directions = workspace.directions();
+        } else {
+            length = grid.newLayer();
+            droppingTo = grid.newLayer();
+            next = grid.newLayer();
+        }
+        // On the heap with the layers, mapped maps keep the heap for what doesn't fit there.
+        if(workspace != null)
+            masks = workspace.masks(size);
+        else if(!(grid instanceof MappedGrid))
+            masks = new byte[size];
+        else
+            masks = null;
+        if(masks != null)
+            DescentMask.fill(grid, masks);
+        steps = new int[]{1, -1, cols, -cols};
+        if(stack == null || stack.length == 0) {
+            stack = new int[Math.min(Math.max(size, 1), INITIAL_STACK)];
+            directions = new byte[stack.length];
+            if(workspace != null)
+                workspace.keepStack(stack, directions);
+        }
+        best = -1;
+    }
+
+    /**
+     * Solves every cell and returns the best run of the map.
+     */
+    public Result solve() {
+        beginSolve();
+        solving = true;
+        try {
+            for(int i = 0; i < size; i++) {
+                if((i & (CHECK_INTERVAL - 1)) == 0)
+                    checkpoint();
+                if(isPeak(i))
+                    offer(i);
+            }
+        } catch(OutOfTime e) {
+            provisional = true;
+        } finally {
+            solving = false;
+        }
+        return getResult();
+    }
+
+    /**
+     * Solves the cells in the given order and returns the best run of the map. With a
+     * deadline, offering the highest cells first, as {@link ElevationOrder#descending(Grid)}
+     * does, makes the best of the cells reached in time a good guess.
+     */
+    public Result solve(final int[] order) {
+        return solve(order, order.length);
+    }
+
+    /**
+     * Solves the first count cells of the order, e.g. of one taken from a
+     * {@link SolverWorkspace}, as {@link #solve(int[])} does.
+     */
+    public Result solve(final int[] order, final int count) {
+        beginSolve();
+        solving = true;
+        try {
+            for(int k = 0; k < count; k++) {
+                if((k & (CHECK_INTERVAL - 1)) == 0)
+                    checkpoint();
+                if(isPeak(order[k]))
+                    offer(order[k]);
+            }
+        } catch(OutOfTime e) {
+            provisional = true;
+        } finally {
+            solving = false;
+        }
+        return getResult();
+    }
+
+    /**
+     * Gives solve() this much time from now on, the time of every later solve included.
+     */
+    public void setDeadline(final long budget, final TimeUnit unit) {
+        deadline = System.nanoTime() + unit.toNanos(budget);
+        hasDeadline = true;
+    }
+
+    public void clearDeadline() {
+        hasDeadline = false;
+    }
+
+    /**
+     * Stops the solve running on another thread, and every solve after it, at its next check.
+     * Parallel solves can't be stopped by interrupting the calling thread, only by this.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Solves the run starting at cell index i and keeps it if it beats the best one so far.
+     * Runs of the same length and drop are resolved in favour of the higher start, and then of
+     * the one offered first.
+     */
+    public void offer(final int i) {
+        compute(i);
+        if(best < 0 || isBetter(i, best))
+            best = i;
+    }
+
+    public void offer(final int x, final int y) {
+        offer(grid.index(x, y));
+    }
+
+    public int lengthAt(final int x, final int y) {
+        final int i = grid.index(x, y);
+        compute(i);
+        return length.get(i);
+    }
+
+    public int dropAt(final int x, final int y) {
+        final int i = grid.index(x, y);
+        compute(i);
+        return elevation(i) - droppingTo.get(i);
+    }
+
+    /**
+     * Reports the solver's work to metrics from now on, null to stop.
+     */
+    public void setMetrics(Metrics metrics) {
+        flushMetrics();
+        this.metrics = metrics;
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    void beginSolve() {
+        checkCancelled();
+        provisional = false;
+    }
+
+    void setProvisional(final boolean provisional) {
+        this.provisional = provisional;
+    }
+
+    void checkCancelled() {
+        if(cancelled || Thread.currentThread().isInterrupted())
+            throw new CancellationException("Solve cancelled");
+    }
+
+    boolean isOutOfTime() {
+        return hasDeadline && System.nanoTime() - deadline > 0;
+    }
+
+    private void checkpoint() {
+        checkCancelled();
+        if(solving && isOutOfTime())
+            throw OUT_OF_TIME;
+    }
+
+    // Unwinds a solve that ran out of time, shared and without a stack trace as it's expected.
+    private static class OutOfTime extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        OutOfTime() {
+            super();
+        }
+
+        // The four argument constructor that skips this is only on Android from API 24.
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    void flushMetrics() {
+        if(metrics != null) {
+            metrics.addCellsVisited(visits);
+            metrics.addMemoHits(memoHits);
+            metrics.updatePeakPathLength(peakLength);
+        }
+        visits = 0;
+        memoHits = 0;
+    }
+
+    Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * The elevation of cell i. Packed maps are read through their final class, so the read is
+     * inlined instead of being a virtual call for every neighbour looked at.
+     */
+    final int elevation(final int i) {
+        return (packed != null) ? packed.get(i) : grid.get(i);
+    }
+
+    /**
+     * The {@link DescentMask} bits of cell i.
+     */
+    final int mask(final int i) {
+        return (masks != null) ? masks[i] : DescentMask.at(grid, i);
+    }
+
+    final boolean isPeak(final int i) {
+        return (mask(i) & DescentMask.PEAK) != 0;
+    }
+
+    /**
+     * Brings the masks up to date after the elevation of cell i changed.
+     */
+    void elevationChanged(final int i) {
+        if(masks != null)
+            DescentMask.update(grid, masks, i);
+    }
+
+    void setBest(final int i) {
+        best = i;
+    }
+
+    int getLength(final int i) {
+        return length.get(i);
+    }
+
+    int getDroppingTo(final int i) {
+        return droppingTo.get(i);
+    }
+
+    /**
+     * The cell the run of cell i goes on to, or -1 at the end of the run.
+     */
+    int getNext(final int i) {
+        return next.get(i);
+    }
+
+    /**
+     * Solves every cell not solved yet, without touching the best run.
+     */
+    void solveAll() {
+        for(int i = 0; i < size; i++)
+            compute(i);
+    }
+
+    /**
+     * Releases the layers the solver created, which leaves it unusable. Layers taken from a
+     * workspace stay with the workspace.
+     */
+    @Override
+    public void close() {
+        if(workspace == null) {
+            release(length);
+            release(droppingTo);
+            release(next);
+        }
+    }
+
+    private static void release(final Grid layer) {
+        if(layer instanceof MappedGrid)
+            ((MappedGrid) layer).close();
+    }
+
+    public Result getResult() {
+        flushMetrics();
+        if(best < 0)
+            return new Result(0, 0, 0, 0, 0, new int[0], provisional);
+        final Metrics.Timer timer = (metrics != null) ?
+                metrics.start(Metrics.Phase.RECONSTRUCT) : null;
+        try {
+            return resultAt(best, provisional);
+        } finally {
+            if(timer != null)
+                timer.stop();
+        }
+    }
+
+    // The run starting at cell i, which must be solved.
+    Result resultAt(final int i) {
+        return resultAt(i, false);
+    }
+
+    private Result resultAt(final int i, final boolean provisional) {
+        return new Result(length.get(i), elevation(i), droppingTo.get(i),
+                grid.getX(i), grid.getY(i), trackPath(i), provisional);
+    }
+
+    boolean isBetter(final int i, final int other) {
+        if(length.get(i) != length.get(other))
+            return length.get(i) > length.get(other);
+        final int drop = elevation(i) - droppingTo.get(i);
+        final int otherDrop = elevation(other) - droppingTo.get(other);
+        if(drop != otherDrop)
+            return drop > otherDrop;
+        return elevation(i) > elevation(other);
+    }
+
+    /**
+     * Total order of the runs: better, or as good and starting at a lower index.
+     */
+    boolean ranksAbove(final int i, final int other) {
+        return isBetter(i, other) || (i < other && !isBetter(other, i));
+    }
+
+    private void compute(final int root) {
+        if(length.get(root) != 0) {
+            memoHits++;
+            return;
+        }
+
+        int top = 0;
+        stack[0] = root;
+        directions[0] = 0;
+        while(top >= 0) {
+            final int i = stack[top];
+            final int pending = nextPending(i, top);
+            if(pending >= 0) {
+                if(++top == stack.length)
+                    growStack();
+                stack[top] = pending;
+                directions[top] = 0;
+            } else {
+                settle(i);
+                if((++visits & (CHECK_INTERVAL - 1)) == 0)
+                    checkpoint();
+                top--;
+            }
+        }
+        if(length.get(root) > peakLength)
+            peakLength = length.get(root);
+        if(visits >= METRICS_BATCH)
+            flushMetrics();
+    }
+
+    // Returns the next lower neighbour of the frame's cell that is still unsolved, or -1.
+    private int nextPending(final int i, final int frame) {
+        final int lower = mask(i);
+        while(directions[frame] < 4) {
+            final int direction = directions[frame]++;
+            if((lower & (1 << direction)) != 0) {
+                final int neighbour = i + steps[direction];
+                if(length.get(neighbour) == 0)
+                    return neighbour;
+                memoHits++;
+            }
+        }
+        return -1;
+    }
+
+    private void growStack() {
+        final int capacity = (int) Math.min((long) stack.length * 2, Math.max(size, 1) + 1L);
+        stack = Arrays.copyOf(stack, capacity);
+        directions = Arrays.copyOf(directions, capacity);
+        if(workspace != null)
+            workspace.keepStack(stack, directions);
+    }
+
+    // Picks the best run of cell i once all of its lower neighbours are solved.
+    void settle(final int i) {
+        final int value = elevation(i);
+        final int lower = mask(i);
+        int bestLength = 1;
+        int bestTo = value;
+        int bestNext = -1;
+        if((lower & DescentMask.RIGHT) != 0 &&
+                isLonger(length.get(i+1) + 1, droppingTo.get(i+1), bestLength, bestTo)) {
+            bestLength = length.get(i+1) + 1;
+            bestTo = droppingTo.get(i+1);
+            bestNext = i+1;
+        }
+        if((lower & DescentMask.LEFT) != 0 &&
+                isLonger(length.get(i-1) + 1, droppingTo.get(i-1), bestLength, bestTo)) {
+            bestLength = length.get(i-1) + 1;
+            bestTo = droppingTo.get(i-1);
+            bestNext = i-1;
+        }
+        if((lower & DescentMask.DOWN) != 0 &&
+                isLonger(length.get(i+cols) + 1, droppingTo.get(i+cols), bestLength, bestTo)) {
+            bestLength = length.get(i+cols) + 1;
+            bestTo = droppingTo.get(i+cols);
+            bestNext = i+cols;
+        }
+        if((lower & DescentMask.UP) != 0 &&
+                isLonger(length.get(i-cols) + 1, droppingTo.get(i-cols), bestLength, bestTo)) {
+            bestLength = length.get(i-cols) + 1;
+            bestTo = droppingTo.get(i-cols);
+            bestNext = i-cols;
+        }
+        length.set(i, bestLength);
+        droppingTo.set(i, bestTo);
+        next.set(i, bestNext);
+    }
+
+    private static boolean isLonger(final int length, final int droppingTo,
+                                    final int bestLength, final int bestTo) {
+        return length > bestLength || (length == bestLength && droppingTo < bestTo);
+    }
+
+    // Follows the successor table down from cell i, only the winning run is ever materialised.
+    private int[] trackPath(int i) {
+        final int[] path = new int[length.get(i)];
+        for(int k = 0; k < path.length; k++) {
+            path[k] = elevation(i);
+            i = next.get(i);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,132 @@
+package com.redmart.skiinginsingapore.engine;
+
+import java.util.Arrays;
+
+/**
+ * The buffers of a run kept for the next one: the elevation order and its sort scratch, the
+ * solver's per-cell layers and masks, and its descent stack. Every buffer grows to the largest
+ * map seen, with some headroom, and is reused for any map of that many cells or fewer, so
+ * consecutive runs on maps of a similar size allocate nothing but their {@link Result}.
+ *
+ * A workspace serves one run at a time: an order or solver taken from it is only good until
+ * the next one is. The map itself stays in whatever storage it was loaded into.
+ */
+public class SolverWorkspace {
+    private static final int[] NONE = new int[0];
+    // Largest array the VM will reliably hand out.
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private int[] order = NONE;
+    private int[] spareOrder = NONE;
+    private int[] keys = NONE;
+    private int[] spareKeys = NONE;
+    private int[] starts = NONE;
+    private int[] length = NONE;
+    private int[] droppingTo = NONE;
+    private int[] next = NONE;
+    private int[] stack = NONE;
+    private byte[] directions = new byte[0];
+    private byte[] masks = new byte[0];
+
+    /**
+     * Cells the buffers can take without growing.
+     */
+    public int getCapacity() {
+        return length.length;
+    }
+
+    /**
+     * Drops every buffer, e.g. before a run on a much smaller map or when memory runs low.
+     */
+    public void release() {
+        order = spareOrder = keys = spareKeys = starts = NONE;
+        length = droppingTo = next = stack = NONE;
+        directions = new byte[0];
+        masks = new byte[0];
+    }
+
+    // The order buffers, at least size long.
+    int[] order(final int size) {
+        if(order.length < size)
+            order = new int[capacity(size)];
+        return order;
+    }
+
+    // The radix sort's scratch: the second order buffer and the two key buffers.
+    int[] spareOrder(final int size) {
+        if(spareOrder.length < size)
+            spareOrder = new int[capacity(size)];
+        return spareOrder;
+    }
+
+    int[] keys(final int size) {
+        if(keys.length < size)
+            keys = new int[capacity(size)];
+        return keys;
+    }
+
+    int[] spareKeys(final int size) {
+        if(spareKeys.length < size)
+            spareKeys = new int[capacity(size)];
+        return spareKeys;
+    }
+
+    // The radix sort ends in either order buffer, the one it ended in becomes the order.
+    void sortedInto(final int[] sorted) {
+        if(sorted == spareOrder) {
+            spareOrder = order;
+            order = sorted;
+        }
+    }
+
+    // The counting sort's bucket starts, exactly range long as the sort needs no more.
+    int[] starts(final int range) {
+        if(starts.length < range)
+            starts = new int[range];
+        return starts;
+    }
+
+    // The solver's layers, the length one zeroed as an unsolved map needs.
+    Grid[] layers(final Grid grid) {
+        final int size = grid.size();
+        if(length.length < size) {
+            final int capacity = capacity(size);
+            // Let go of the old ones first, the new ones may only fit without them.
+            length = droppingTo = next = NONE;
+            length = new int[capacity];
+            droppingTo = new int[capacity];
+            next = new int[capacity];
+        } else {
+            Arrays.fill(length, 0, size, 0);
+        }
+        return new Grid[]{IntGrid.over(grid.getRows(), grid.getCols(), length),
+                IntGrid.over(grid.getRows(), grid.getCols(), droppingTo),
+                IntGrid.over(grid.getRows(), grid.getCols(), next)};
+    }
+
+    // The solver's neighbour masks, filled in by the solver.
+    byte[] masks(final int size) {
+        if(masks.length < size)
+            masks = new byte[capacity(size)];
+        return masks;
+    }
+
+    int[] stack() {
+        return stack;
+    }
+
+    byte[] directions() {
+        return directions;
+    }
+
+    // Keeps the solver's stack once it has grown.
+    void keepStack(final int[] stack, final byte[] directions) {
+        this.stack = stack;
+        this.directions = directions;
+    }
+
+    // An eighth more than needed, so maps growing a little at a time don't reallocate each run.
+    private static int capacity(final int needed) {
+        return (int) Math.max(needed, Math.min(MAX_CAPACITY, needed + (long) (needed >> 3)));
+    }
+}
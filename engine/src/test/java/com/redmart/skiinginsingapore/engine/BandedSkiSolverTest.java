@@ -0,0 +1,180 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BandedSkiSolverTest {
+    private File file;
+    private File spill;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("banded", ".ski");
+        spill = File.createTempFile("spill", "");
+        spill.delete();
+        spill.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        File[] left = spill.listFiles();
+        spill.delete();
+        assertEquals(0, left.length);
+    }
+
+    @Test
+    public void sampleMap_isSolvedInStripsOfOneRow() throws Exception {
+        Result result = solve(Grid.of(SkiSolverTest.SAMPLE), 1);
+
+        assertEquals(5, result.length);
+        assertEquals(8, result.getDrop());
+        assertEquals(1, result.startX);
+        assertEquals(2, result.startY);
+        assertArrayEquals(new int[]{9, 5, 3, 2, 1}, result.path);
+    }
+
+    @Test
+    public void randomMaps_matchInMemorySolve() throws Exception {
+        Random random = new Random(19);
+        for(int n = 0; n < 60; n++) {
+            Grid grid = Grid.of(SkiSolverTest.randomMap(random, 1 + random.nextInt(40),
+                    1 + random.nextInt(40), (n % 2 == 0) ? 5 : 1000));
+            assertSameResult(new SkiSolver(grid).solve(),
+                    solve(grid, 1 + random.nextInt(grid.getRows())));
+        }
+    }
+
+    @Test
+    public void manyStrips_matchInMemorySolve() throws Exception {
+        // Enough runs handed to later strips to spill and reuse blocks of their buckets.
+        Random random = new Random(23);
+        for(int bound : new int[]{50, 1000000}) {
+            Grid grid = Grid.of(SkiSolverTest.randomMap(random, 200, 200, bound));
+            assertSameResult(new SkiSolver(grid).solve(), solve(grid, 1));
+        }
+    }
+
+    @Test
+    public void runsCrossingStripsBackAndForth_areFollowed() throws Exception {
+        // One run snaking down the first column, up the second and so on, through every strip.
+        final int rows = 30;
+        final int cols = 12;
+        Grid grid = new IntGrid(rows, cols);
+        int value = rows * cols;
+        for(int y = 0; y < cols; y++)
+            for(int k = 0; k < rows; k++)
+                grid.set((y % 2 == 0) ? k : rows - 1 - k, y, value--);
+
+        SkiFormat.write(grid, file);
+        BandedSkiSolver solver = new BandedSkiSolver(file, spill, 4);
+        try {
+            Result result = solver.solve();
+            assertSameResult(new SkiSolver(grid).solve(), result);
+            assertEquals(rows * cols, result.length);
+            assertEquals(solver.getBands(), solver.getStripReads());
+        } finally {
+            solver.close();
+        }
+    }
+
+    @Test
+    public void runZigzaggingAcrossOneBoundary_readsEachStripOnce() throws Exception {
+        // Down and up the two rows of every column, across the strips' boundary each step.
+        final int cols = 200;
+        Grid grid = new IntGrid(2, cols);
+        int value = 2 * cols;
+        for(int y = 0; y < cols; y++) {
+            grid.set((y % 2 == 0) ? 0 : 1, y, value--);
+            grid.set((y % 2 == 0) ? 1 : 0, y, value--);
+        }
+
+        SkiFormat.write(grid, file);
+        BandedSkiSolver solver = new BandedSkiSolver(file, spill, 1);
+        try {
+            Result result = solver.solve();
+            assertSameResult(new SkiSolver(grid).solve(), result);
+            assertEquals(2 * cols, result.length);
+            assertEquals(2, solver.getStripReads());
+        } finally {
+            solver.close();
+        }
+    }
+
+    @Test
+    public void runsCrossingStripsOneWay_readEveryStripOnce() throws Exception {
+        Grid grid = SkiSolverTest.serpentine(40, 10);
+        SkiFormat.write(grid, file);
+        final int bandRows = BandedSkiSolver.bandRows(10,
+                10L * 10 * BandedSkiSolver.BYTES_PER_CELL);
+        assertEquals(10, bandRows);
+        BandedSkiSolver solver = new BandedSkiSolver(file, spill, bandRows);
+        try {
+            assertSameResult(new SkiSolver(grid).solve(), solver.solve());
+            assertEquals(4, solver.getBands());
+            assertEquals(4, solver.getStripReads());
+        } finally {
+            solver.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void largeSerpentine_isSolvedInOnePass() throws Exception {
+        // Its run goes through every cell, across every strip boundary.
+        Grid grid = SkiSolverTest.serpentine(1000, 1000);
+        SkiFormat.write(grid, file);
+        BandedSkiSolver solver = new BandedSkiSolver(file, spill, 100);
+        try {
+            assertSameResult(new SkiSolver(grid).solve(), solver.solve());
+            assertEquals(10, solver.getStripReads());
+        } finally {
+            solver.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedMap_isRejected() throws Exception {
+        SkiFormat.write(Grid.of(SkiSolverTest.randomMap(new Random(1), 20, 20, 100)), file);
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            access.seek(SkiFormat.HEADER_SIZE + 1000);
+            access.write(0x7F);
+        } finally {
+            access.close();
+        }
+        solve(null, 3);
+    }
+
+    @Test
+    public void emptyMap_hasEmptyResult() throws Exception {
+        assertEquals(0, solve(new IntGrid(0, 0), 5).length);
+    }
+
+    private Result solve(Grid grid, int bandRows) throws IOException {
+        if(grid != null)
+            SkiFormat.write(grid, file);
+        BandedSkiSolver solver = new BandedSkiSolver(file, spill, bandRows);
+        try {
+            return solver.solve();
+        } finally {
+            solver.close();
+        }
+    }
+
+    private static void assertSameResult(Result expected, Result result) {
+        assertEquals(expected.length, result.length);
+        assertEquals(expected.droppingFrom, result.droppingFrom);
+        assertEquals(expected.droppingTo, result.droppingTo);
+        assertEquals(expected.startX, result.startX);
+        assertEquals(expected.startY, result.startY);
+        assertArrayEquals(expected.path, result.path);
+    }
+}
@@ -0,0 +1,97 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DescentMaskTest {
+
+    // The mask of cell (x, y) by comparing it with each of its neighbours.
+    private static int expected(Grid grid, int x, int y) {
+        final int value = grid.get(x, y);
+        final int[][] moves = {{0, 1}, {0, -1}, {1, 0}, {-1, 0}};
+        int mask = 0;
+        boolean peak = true;
+        for(int d = 0; d < moves.length; d++) {
+            final int nx = x + moves[d][0];
+            final int ny = y + moves[d][1];
+            if(nx < 0 || ny < 0 || nx >= grid.getRows() || ny >= grid.getCols())
+                continue;
+            if(grid.get(nx, ny) < value)
+                mask |= 1 << d;
+            if(grid.get(nx, ny) > value)
+                peak = false;
+        }
+        return peak ? mask | DescentMask.PEAK : mask;
+    }
+
+    @Test
+    public void masks_matchNeighbourComparisons() throws Exception {
+        Random random = new Random(25);
+        final int[][] sizes = {{1, 1}, {1, 9}, {9, 1}, {2, 2}, {17, 33}, {64, 5}};
+        for(int[] size : sizes) {
+            for(int bound : new int[]{3, Integer.MAX_VALUE}) {
+                Grid grid = Grid.of(SkiSolverTest.randomMap(random, size[0], size[1], bound));
+                // Differences that overflow an int.
+                grid.set(0, Integer.MIN_VALUE);
+                grid.set(grid.size() - 1, Integer.MAX_VALUE);
+                if(grid.size() > 2)
+                    grid.set(grid.size() / 2, Integer.MIN_VALUE);
+
+                byte[] masks = DescentMask.of(grid);
+                assertEquals(grid.size(), masks.length);
+                for(int x = 0; x < grid.getRows(); x++) {
+                    for(int y = 0; y < grid.getCols(); y++) {
+                        final int i = grid.index(x, y);
+                        assertEquals(expected(grid, x, y), masks[i]);
+                        assertEquals(masks[i], DescentMask.at(grid, i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void update_followsEdits() throws Exception {
+        Random random = new Random(7);
+        Grid grid = Grid.of(SkiSolverTest.randomMap(random, 20, 30, 10));
+        byte[] masks = DescentMask.of(grid);
+        for(int n = 0; n < 200; n++) {
+            final int i = random.nextInt(grid.size());
+            grid.set(i, random.nextInt(10));
+            DescentMask.update(grid, masks, i);
+            assertArrayEquals(DescentMask.of(grid), masks);
+        }
+    }
+
+    @Test
+    public void peakStarts_solveEveryCell() throws Exception {
+        Random random = new Random(11);
+        for(int n = 0; n < 30; n++) {
+            int[][] map = SkiSolverTest.randomMap(random, 1 + random.nextInt(12),
+                    1 + random.nextInt(12), (n % 2 == 0) ? 4 : 100);
+            Grid grid = Grid.of(map);
+            SkiSolver solver = new SkiSolver(grid);
+            Result result = solver.solve();
+
+            int[] best = {0, 0};
+            for(int x = 0; x < map.length; x++) {
+                for(int y = 0; y < map[0].length; y++) {
+                    final int i = grid.index(x, y);
+                    assertTrue(solver.getLength(i) > 0);
+                    int[] run = SkiSolverTest.exhaustive(map, x, y);
+                    assertEquals(run[0], solver.getLength(i));
+                    assertEquals(run[1], solver.getDroppingTo(i));
+                    if(run[0] > best[0] || (run[0] == best[0] &&
+                            map[x][y] - run[1] > best[1]))
+                        best = new int[]{run[0], map[x][y] - run[1]};
+                }
+            }
+            assertEquals(best[0], result.length);
+            assertEquals(best[1], result.droppingFrom - result.droppingTo);
+            assertTrue(solver.isPeak(grid.index(result.startX, result.startY)));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ElevationOrderTest {
+
+    static void assertDescendingAndStable(Grid grid, int[] order) {
+        assertEquals(grid.size(), order.length);
+        boolean[] seen = new boolean[grid.size()];
+        for(int k = 0; k < order.length; k++) {
+            assertFalse(seen[order[k]]);
+            seen[order[k]] = true;
+            if(k > 0) {
+                int previous = grid.get(order[k-1]);
+                int current = grid.get(order[k]);
+                assertTrue(previous >= current);
+                if(previous == current)
+                    assertTrue(order[k-1] < order[k]);
+            }
+        }
+    }
+
+    static Grid randomGrid(Random random, int size, int min, int max) {
+        Grid grid = new IntGrid(1, size);
+        for(int i = 0; i < size; i++)
+            grid.set(i, (int) (min + (long) (random.nextDouble() * ((long) max - min))));
+        return grid;
+    }
+
+    @Test
+    public void narrowRange_isCountingSorted() throws Exception {
+        Grid grid = randomGrid(new Random(1), 10000, 0, 1500);
+        assertDescendingAndStable(grid, ElevationOrder.descending(grid));
+    }
+
+    @Test
+    public void wideRange_isRadixSorted() throws Exception {
+        Grid grid = randomGrid(new Random(2), 10000, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        grid.set(0, Integer.MIN_VALUE);
+        grid.set(1, Integer.MAX_VALUE);
+        grid.set(2, -1);
+        grid.set(3, 0);
+        grid.set(4, 0);
+        assertDescendingAndStable(grid, ElevationOrder.descending(grid));
+    }
+
+    @Test
+    public void sampleMap_startsAtItsPeak() throws Exception {
+        int[] order = ElevationOrder.descending(Grid.of(SkiSolverTest.SAMPLE));
+        assertEquals(6, order[0]);
+        assertEquals(14, order[15]);
+    }
+
+    static ElevationHistogram countedOneByOne(Grid grid) {
+        ElevationHistogram histogram = new ElevationHistogram(grid.size());
+        for(int i = 0; i < grid.size(); i++)
+            histogram.add(grid.get(i));
+        return histogram;
+    }
+
+    @Test
+    public void growingHistogram_staysNarrow() throws Exception {
+        Grid grid = randomGrid(new Random(3), 20000, -30000, 30000);
+        grid.set(0, 0);
+        ElevationHistogram histogram = countedOneByOne(grid);
+
+        assertTrue(histogram.isNarrow());
+        assertArrayEquals(ElevationOrder.descending(grid),
+                ElevationOrder.descending(grid, histogram));
+    }
+
+    @Test
+    public void overflowingHistogram_isFolded() throws Exception {
+        Grid grid = randomGrid(new Random(4), 20000, 0, 1000);
+        grid.set(15000, Integer.MAX_VALUE);
+        grid.set(15001, Integer.MIN_VALUE);
+        ElevationHistogram histogram = countedOneByOne(grid);
+
+        assertFalse(histogram.isNarrow());
+        assertEquals(Integer.MIN_VALUE, histogram.getMin());
+        assertEquals(Integer.MAX_VALUE, histogram.getMax());
+        assertArrayEquals(ElevationOrder.descending(grid),
+                ElevationOrder.descending(grid, histogram));
+    }
+
+    @Test
+    public void extremeFirstValues_fitTheWindow() throws Exception {
+        for(int first : new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+            Grid grid = new IntGrid(1, 3);
+            grid.set(0, first);
+            grid.set(1, first);
+            grid.set(2, (first < 0) ? first + 700 : first - 700);
+            ElevationHistogram histogram = countedOneByOne(grid);
+            assertTrue(histogram.isNarrow());
+            assertDescendingAndStable(grid, ElevationOrder.descending(grid, histogram));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void partialHistogram_isRejected() throws Exception {
+        Grid grid = Grid.of(SkiSolverTest.SAMPLE);
+        ElevationHistogram histogram = new ElevationHistogram(grid.size());
+        histogram.add(grid, 0, 8);
+        ElevationOrder.descending(grid, histogram);
+    }
+
+    @Test
+    public void emptyGrid_hasEmptyOrder() throws Exception {
+        assertEquals(0, ElevationOrder.descending(new IntGrid(0, 0)).length);
+    }
+}
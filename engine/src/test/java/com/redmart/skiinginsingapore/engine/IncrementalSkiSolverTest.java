@@ -0,0 +1,92 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IncrementalSkiSolverTest {
+
+    static void assertSameResult(Result expected, Result result) {
+        assertEquals(expected.length, result.length);
+        assertEquals(expected.getDrop(), result.getDrop());
+        assertEquals(expected.startX, result.startX);
+        assertEquals(expected.startY, result.startY);
+        assertArrayEquals(expected.path, result.path);
+    }
+
+    @Test
+    public void sampleEdit_changesTheBestRun() throws Exception {
+        IncrementalSkiSolver solver = new IncrementalSkiSolver(Grid.of(SkiSolverTest.SAMPLE));
+        assertEquals(5, solver.solve().length);
+
+        // A higher peak keeps the same run, only steeper.
+        Result result = solver.updateElevation(1, 2, 10);
+        assertArrayEquals(new int[]{10, 5, 3, 2, 1}, result.path);
+
+        result = solver.updateElevation(2, 2, 7);
+        int[][] map = SkiSolverTest.SAMPLE.clone();
+        for(int x = 0; x < map.length; x++)
+            map[x] = map[x].clone();
+        map[1][2] = 10;
+        map[2][2] = 7;
+        assertSameResult(new SkiSolver(Grid.of(map)).solve(), result);
+    }
+
+    @Test
+    public void randomEdits_matchFullSolve() throws Exception {
+        Random random = new Random(11);
+        for(int round = 0; round < 20; round++) {
+            final int rows = 1 + random.nextInt(30);
+            final int cols = 1 + random.nextInt(30);
+            final int bound = 2 + random.nextInt(40);
+            Grid grid = Grid.of(SkiSolverTest.randomMap(random, rows, cols, bound));
+            IncrementalSkiSolver solver = new IncrementalSkiSolver(grid);
+            solver.solve();
+            for(int edit = 0; edit < 50; edit++) {
+                Result result = solver.updateElevation(random.nextInt(rows),
+                        random.nextInt(cols), random.nextInt(bound));
+                int[] cells = new int[grid.size()];
+                for(int i = 0; i < cells.length; i++)
+                    cells[i] = grid.get(i);
+                SkiSolver fresh = new SkiSolver(new IntGrid(rows, cols, cells));
+                assertSameResult(fresh.solve(), result);
+                for(int x = 0; x < rows; x++)
+                    for(int y = 0; y < cols; y++) {
+                        assertEquals(fresh.lengthAt(x, y), solver.lengthAt(x, y));
+                        assertEquals(fresh.dropAt(x, y), solver.dropAt(x, y));
+                    }
+            }
+        }
+    }
+
+    @Test
+    public void editBeforeSolve_solvesFirst() throws Exception {
+        IncrementalSkiSolver solver = new IncrementalSkiSolver(Grid.of(SkiSolverTest.SAMPLE));
+        assertSameResult(new SkiSolver(Grid.of(SkiSolverTest.SAMPLE)).solve(),
+                solver.updateElevation(0, 0, 4));
+    }
+
+    @Test
+    public void loweringTheEndOfALongRun_reachesItsStart() throws Exception {
+        Grid grid = SkiSolverTest.serpentine(300, 300);
+        IncrementalSkiSolver solver = new IncrementalSkiSolver(grid);
+        Result before = solver.solve();
+        assertEquals(90000, before.length);
+
+        int end = 0;
+        for(int i = 1; i < grid.size(); i++)
+            if(grid.get(i) < grid.get(end))
+                end = i;
+        Result result = solver.updateElevation(grid.getX(end), grid.getY(end),
+                grid.get(end) - 1000);
+        assertEquals(90000, result.length);
+        assertEquals(before.getDrop() + 1000, result.getDrop());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void editOutsideTheMap_isRejected() throws Exception {
+        new IncrementalSkiSolver(Grid.of(SkiSolverTest.SAMPLE)).updateElevation(4, 0, 1);
+    }
+}
@@ -0,0 +1,114 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MapParserTest {
+
+    static final String SAMPLE = "4 4\n4 8 7 3\n2 5 9 3\n6 3 2 5\n4 4 1 6\n";
+
+    static byte[] bytes(String text) throws Exception {
+        return text.getBytes("US-ASCII");
+    }
+
+    static void assertSample(Grid grid) {
+        assertEquals(4, grid.getRows());
+        assertEquals(4, grid.getCols());
+        for(int x = 0; x < 4; x++)
+            for(int y = 0; y < 4; y++)
+                assertEquals(SkiSolverTest.SAMPLE[x][y], grid.get(x, y));
+    }
+
+    @Test
+    public void stream_isParsed() throws Exception {
+        assertSample(MapParser.parse(new ByteArrayInputStream(bytes(SAMPLE))));
+    }
+
+    @Test
+    public void crlfAndExtraWhitespace_areIgnored() throws Exception {
+        String text = "  4\t4\r\n4  8 7 3\r\n2 5   9 3 \r\n\r\n6 3 2 5\r\n4 4 1 6";
+        assertSample(MapParser.parse(new ByteArrayInputStream(bytes(text))));
+    }
+
+    @Test
+    public void heapAndDirectBuffers_areParsed() throws Exception {
+        assertSample(MapParser.parse(ByteBuffer.wrap(bytes(SAMPLE))));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(SAMPLE.length());
+        direct.put(bytes(SAMPLE));
+        direct.flip();
+        assertSample(MapParser.parse(direct));
+    }
+
+    @Test
+    public void tinyReads_areStitchedTogether() throws Exception {
+        InputStream trickle = new ByteArrayInputStream(bytes(SAMPLE)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        assertSample(MapParser.parse(trickle));
+    }
+
+    @Test
+    public void rowListener_seesEveryRow() throws Exception {
+        final List<Integer> rows = new ArrayList<>();
+        MapParser.parse(new ByteArrayInputStream(bytes(SAMPLE)), new MapParser.RowListener() {
+            @Override
+            public void onRowParsed(Grid grid, int x) {
+                rows.add(x);
+                assertEquals(SkiSolverTest.SAMPLE[x][3], grid.get(x, 3));
+            }
+        });
+        assertEquals(4, rows.size());
+        assertEquals(3, (int) rows.get(3));
+    }
+
+    @Test
+    public void extremeValues_areParsed() throws Exception {
+        Grid grid = MapParser.parse(new ByteArrayInputStream(
+                bytes("1 3\n-2147483648 2147483647 -0")));
+        assertEquals(Integer.MIN_VALUE, grid.get(0));
+        assertEquals(Integer.MAX_VALUE, grid.get(1));
+        assertEquals(0, grid.get(2));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedMap_isRejected() throws Exception {
+        MapParser.parse(new ByteArrayInputStream(bytes("2 2\n1 2\n3")));
+    }
+
+    @Test(expected = IOException.class)
+    public void garbage_isRejected() throws Exception {
+        MapParser.parse(new ByteArrayInputStream(bytes("1 2\n1 2x")));
+    }
+
+    @Test
+    public void nonAsciiBytes_areRejected() throws Exception {
+        final byte[][] maps = {
+                {'1', ' ', '2', '\n', '1', '2', (byte) 0xE9, '6'},
+                {(byte) 0xE9, '1', ' ', '1', '\n', '1'}};
+        for(byte[] map : maps) {
+            try {
+                MapParser.parse(new ByteArrayInputStream(map));
+                fail("Parsed a map with a non-ASCII byte");
+            } catch(IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("unexpected character"));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void overflow_isRejected() throws Exception {
+        MapParser.parse(new ByteArrayInputStream(bytes("1 1\n2147483648")));
+    }
+}
@@ -0,0 +1,74 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MapPipelineTest {
+
+    static String text(int[][] map) {
+        StringBuilder text = new StringBuilder();
+        text.append(map.length).append(' ').append(map.length > 0 ? map[0].length : 0);
+        for(int[] row : map) {
+            text.append('\n');
+            for(int value : row)
+                text.append(value).append(' ');
+        }
+        return text.toString();
+    }
+
+    // Hands out the map a few bytes per read, like a slow connection.
+    static InputStream trickle(String text, final int bytesPerRead) throws Exception {
+        return new ByteArrayInputStream(MapParserTest.bytes(text)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, bytesPerRead));
+            }
+        };
+    }
+
+    static void assertMatchesSerialStages(int[][] map, int bytesPerRead) throws Exception {
+        MapPipeline pipeline = MapPipeline.parse(trickle(text(map), bytesPerRead));
+        Grid grid = Grid.of(map);
+
+        SkiFormatTest.assertSameGrid(grid, pipeline.getGrid());
+        assertEquals(ResultCache.key(grid), pipeline.getKey());
+        assertArrayEquals(ElevationOrder.descending(grid), pipeline.order());
+    }
+
+    @Test
+    public void sampleMap_matchesSerialStages() throws Exception {
+        assertMatchesSerialStages(SkiSolverTest.SAMPLE, 1);
+    }
+
+    @Test
+    public void narrowMap_matchesSerialStages() throws Exception {
+        assertMatchesSerialStages(SkiSolverTest.randomMap(new Random(5), 300, 200, 1500), 97);
+    }
+
+    @Test
+    public void wideMap_matchesSerialStages() throws Exception {
+        int[][] map = SkiSolverTest.randomMap(new Random(6), 200, 300, Integer.MAX_VALUE);
+        map[0][0] = Integer.MIN_VALUE;
+        map[199][299] = -5;
+        assertMatchesSerialStages(map, 4096);
+    }
+
+    @Test
+    public void emptyMap_isParsed() throws Exception {
+        MapPipeline pipeline = MapPipeline.parse(trickle("0 0", 1));
+        assertEquals(0, pipeline.getGrid().size());
+        assertEquals(ResultCache.key(new IntGrid(0, 0)), pipeline.getKey());
+        assertEquals(0, pipeline.order().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedMap_isRejected() throws Exception {
+        MapPipeline.parse(trickle("3 2\n1 2\n3 4\n5", 2));
+    }
+}
@@ -0,0 +1,131 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void phases_areTimed() throws Exception {
+        final long[] cpu = {1000};
+        Metrics metrics = new Metrics(new Metrics.CpuClock() {
+            @Override
+            public long threadCpuNanos() {
+                return cpu[0];
+            }
+        });
+        Metrics.Timer timer = metrics.start(Metrics.Phase.ORDER);
+        cpu[0] += 500;
+        Thread.sleep(2);
+        timer.stop();
+        timer.stop();
+
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(500, snapshot.getCpuNanos(Metrics.Phase.ORDER));
+        assertTrue(snapshot.getWallNanos(Metrics.Phase.ORDER) >= 2000000);
+        assertEquals(0, snapshot.getWallNanos(Metrics.Phase.SOLVE));
+        assertEquals(snapshot.getWallNanos(Metrics.Phase.ORDER), snapshot.getTotalWallNanos());
+    }
+
+    @Test
+    public void nestedPhase_isLeftOutOfTheOuterOne() throws Exception {
+        final long[] cpu = {0};
+        Metrics metrics = new Metrics(new Metrics.CpuClock() {
+            @Override
+            public long threadCpuNanos() {
+                return cpu[0];
+            }
+        });
+        Metrics.Timer solve = metrics.start(Metrics.Phase.SOLVE);
+        cpu[0] += 100;
+        Metrics.Timer reconstruct = metrics.start(Metrics.Phase.RECONSTRUCT);
+        cpu[0] += 40;
+        Thread.sleep(2);
+        reconstruct.stop();
+        solve.stop();
+
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(100, snapshot.getCpuNanos(Metrics.Phase.SOLVE));
+        assertEquals(40, snapshot.getCpuNanos(Metrics.Phase.RECONSTRUCT));
+        assertTrue(snapshot.getWallNanos(Metrics.Phase.RECONSTRUCT) >= 2000000);
+        assertTrue(snapshot.getWallNanos(Metrics.Phase.SOLVE) <
+                snapshot.getWallNanos(Metrics.Phase.RECONSTRUCT));
+    }
+
+    @Test
+    public void missingCpuClock_isReportedAsUnknown() throws Exception {
+        Metrics metrics = new Metrics(Metrics.NO_CPU_CLOCK);
+        metrics.start(Metrics.Phase.PARSE).stop();
+        assertEquals(-1, metrics.snapshot().getCpuNanos(Metrics.Phase.PARSE));
+    }
+
+    @Test
+    public void solver_reportsItsWork() throws Exception {
+        Metrics metrics = new Metrics();
+        SkiSolver solver = new SkiSolver(Grid.of(SkiSolverTest.SAMPLE));
+        solver.setMetrics(metrics);
+        solver.solve();
+
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(16, snapshot.cellsVisited);
+        assertEquals(5, snapshot.peakPathLength);
+        // Every lower neighbour is met solved once, plus every cell offered after being solved.
+        assertTrue(snapshot.memoHits > 0);
+    }
+
+    @Test
+    public void largeSolve_reportsWhileRunning() throws Exception {
+        Grid grid = SkiSolverTest.serpentine(200, 200);
+        Metrics metrics = new Metrics();
+        SkiSolver solver = new SkiSolver(grid);
+        solver.setMetrics(metrics);
+        solver.offer(0);
+        // Reported in batches, before getResult() flushes the rest.
+        assertTrue(metrics.getCellsVisited() >= SkiSolver.METRICS_BATCH);
+        solver.getResult();
+        assertEquals(40000, metrics.getCellsVisited());
+        // Following the run through every cell.
+        assertTrue(metrics.snapshot().getWallNanos(Metrics.Phase.RECONSTRUCT) > 0);
+    }
+
+    @Test
+    public void parallelSolver_reportsItsWork() throws Exception {
+        Grid grid = Grid.of(SkiSolverTest.randomMap(new Random(31), 300, 300, 50));
+        Metrics metrics = new Metrics();
+        ParallelSkiSolver solver = new ParallelSkiSolver(grid, new ForkJoinPool(2));
+        solver.setMetrics(metrics);
+        Result result = solver.solve();
+
+        assertEquals(grid.size(), metrics.snapshot().cellsVisited);
+        assertEquals(result.length, metrics.snapshot().peakPathLength);
+    }
+
+    @Test
+    public void countedStream_addsBytesRead() throws Exception {
+        Metrics metrics = new Metrics();
+        InputStream in = metrics.count(new ByteArrayInputStream(new byte[100]));
+        in.read();
+        in.read(new byte[50]);
+        in.skip(10);
+        assertEquals(61, metrics.getBytesRead());
+    }
+
+    @Test
+    public void snapshot_isExportedAsJson() throws Exception {
+        Metrics metrics = new Metrics(Metrics.NO_CPU_CLOCK);
+        metrics.addCellsVisited(16);
+        metrics.updatePeakPathLength(5);
+        metrics.updatePeakPathLength(3);
+        String json = metrics.snapshot().toJson();
+        assertTrue(json, json.startsWith(
+                "{\"phases\":{\"fetch\":{\"wallNanos\":0,\"cpuNanos\":-1},\"parse\":"));
+        assertTrue(json, json.endsWith(
+                "\"cellsVisited\":16,\"memoHits\":0,\"peakPathLength\":5,\"bytesRead\":0}"));
+    }
+}
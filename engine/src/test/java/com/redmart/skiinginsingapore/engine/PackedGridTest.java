@@ -0,0 +1,92 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PackedGridTest {
+
+    @Test
+    public void width_followsTheRange() throws Exception {
+        assertEquals(8, PackedGrid.of(grid(-100, 155), false).getBitsPerCell());
+        assertEquals(16, PackedGrid.of(grid(0, 1500), false).getBitsPerCell());
+        assertEquals(11, PackedGrid.of(grid(0, 1500), true).getBitsPerCell());
+        assertEquals(16, PackedGrid.of(grid(5000, 70000), true).getBitsPerCell());
+        assertEquals(20, PackedGrid.of(grid(-500000, 500000), true).getBitsPerCell());
+        assertEquals(32, PackedGrid.of(grid(Integer.MIN_VALUE, Integer.MAX_VALUE), true)
+                .getBitsPerCell());
+    }
+
+    @Test
+    public void randomValues_readBackInEveryWidth() throws Exception {
+        Random random = new Random(20);
+        for(long range : new long[]{1, 200, 1501, 4000, 60000, 1 << 20, 1L << 32}) {
+            for(boolean compact : new boolean[]{false, true}) {
+                Grid values = new IntGrid(37, 41);
+                for(int i = 0; i < values.size(); i++)
+                    values.set(i, (int) (-7 + (long) (random.nextDouble() * range)));
+                assertSameGrid(values, PackedGrid.of(values, compact));
+            }
+        }
+    }
+
+    @Test
+    public void parsing_widensAsElevationsSpread() throws Exception {
+        int[][] map = SkiSolverTest.randomMap(new Random(5), 300, 200, 1501);
+        map[0][0] = 700;
+        map[299][199] = -90000;
+        // Trickled in, so the pipeline's row worker reads rows while the grid re-encodes.
+        MapPipeline pipeline = MapPipeline.parse(
+                MapPipelineTest.trickle(MapPipelineTest.text(map), 997), PackedGrid.COMPACT, null);
+
+        assertTrue(pipeline.getGrid() instanceof PackedGrid);
+        assertEquals(17, ((PackedGrid) pipeline.getGrid()).getBitsPerCell());
+        assertSameGrid(Grid.of(map), pipeline.getGrid());
+        assertEquals(ResultCache.key(Grid.of(map)), pipeline.getKey());
+        assertEquals(-90000, pipeline.getHistogram().getMin());
+    }
+
+    @Test
+    public void edits_keepOtherCells() throws Exception {
+        Grid expected = grid(0, 255);
+        PackedGrid grid = PackedGrid.of(expected, true);
+        assertEquals(8, grid.getBitsPerCell());
+        for(int value : new int[]{256, -3000, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            grid.set(17, value);
+            expected.set(17, value);
+            assertSameGrid(expected, grid);
+        }
+        assertEquals(32, grid.getBitsPerCell());
+    }
+
+    @Test
+    public void solver_readsPackedMaps() throws Exception {
+        Grid heap = Grid.of(SkiSolverTest.randomMap(new Random(9), 200, 300, 1501));
+        Result expected = new SkiSolver(heap).solve();
+        for(boolean compact : new boolean[]{false, true}) {
+            Result result = new SkiSolver(PackedGrid.of(heap, compact)).solve();
+            assertEquals(expected.length, result.length);
+            assertEquals(expected.getDrop(), result.getDrop());
+            assertArrayEquals(expected.path, result.path);
+        }
+    }
+
+    // Every value from min to max, in a scrambled order, then min again.
+    private static Grid grid(final int min, final int max) {
+        Grid grid = new IntGrid(10, 30);
+        for(int i = 0; i < grid.size(); i++)
+            grid.set(i, (int) (min + ((long) i * 7919 % grid.size()) *
+                    ((long) max - min) / (grid.size() - 1)));
+        grid.set(0, min);
+        grid.set(1, max);
+        return grid;
+    }
+
+    private static void assertSameGrid(Grid expected, Grid grid) {
+        assertEquals(expected.size(), grid.size());
+        for(int i = 0; i < expected.size(); i++)
+            assertEquals("cell " + i, expected.get(i), grid.get(i));
+    }
+}
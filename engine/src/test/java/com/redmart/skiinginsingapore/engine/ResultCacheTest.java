@@ -0,0 +1,104 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = File.createTempFile("results", "");
+        directory.delete();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        File[] files = directory.listFiles();
+        if(files != null)
+            for(File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void key_dependsOnSizeAndElevations() throws Exception {
+        Grid grid = Grid.of(SkiSolverTest.SAMPLE);
+        String key = ResultCache.key(grid);
+
+        assertEquals(64, key.length());
+        assertEquals(key, ResultCache.key(Grid.of(SkiSolverTest.SAMPLE)));
+        int[] cells = new int[16];
+        for(int i = 0; i < 16; i++)
+            cells[i] = grid.get(i);
+        assertNotEquals(key, ResultCache.key(new IntGrid(2, 8, cells)));
+        grid.set(15, 7);
+        assertNotEquals(key, ResultCache.key(grid));
+    }
+
+    @Test
+    public void result_survivesRoundTrip() throws Exception {
+        ResultCache cache = new ResultCache(directory, 1 << 20);
+        Grid grid = Grid.of(SkiSolverTest.SAMPLE);
+        String key = ResultCache.key(grid);
+        assertNull(cache.get(key, grid.size()));
+
+        cache.put(key, new SkiSolver(grid).solve());
+        Result result = new ResultCache(directory, 1 << 20).get(key, grid.size());
+
+        assertEquals(5, result.length);
+        assertEquals(8, result.getDrop());
+        assertEquals(1, result.startX);
+        assertEquals(2, result.startY);
+        assertArrayEquals(new int[]{9, 5, 3, 2, 1}, result.path);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void provisionalResult_isNotCached() throws Exception {
+        new ResultCache(directory, 1 << 20).put("key",
+                new Result(1, 4, 4, 0, 0, new int[]{4}, true));
+    }
+
+    @Test
+    public void leastRecentlyUsed_isEvictedFirst() throws Exception {
+        Result result = new SkiSolver(Grid.of(SkiSolverTest.SAMPLE)).solve();
+        ResultCache cache = new ResultCache(directory, 100);
+        cache.put("a", result);
+        cache.put("b", result);
+        new File(directory, "a.result").setLastModified(1000);
+        new File(directory, "b.result").setLastModified(2000);
+        assertNotNull(cache.get("a", 16));
+
+        cache.put("c", result);
+
+        assertNotNull(cache.get("a", 16));
+        assertNull(cache.get("b", 16));
+        assertNotNull(cache.get("c", 16));
+    }
+
+    @Test
+    public void badPathLengths_dropTheEntry() throws Exception {
+        ResultCache cache = new ResultCache(directory, 1 << 20);
+        cache.put("a", new SkiSolver(Grid.of(SkiSolverTest.SAMPLE)).solve());
+        for(int count : new int[]{-1, 17, Integer.MAX_VALUE}) {
+            File file = new File(directory, "a.result");
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                for(int value : new int[]{1, 5, 9, 1, 1, 2, count})
+                    out.writeInt(value);
+            } finally {
+                out.close();
+            }
+            assertNull(cache.get("a", 16));
+            assertFalse(file.exists());
+        }
+    }
+}
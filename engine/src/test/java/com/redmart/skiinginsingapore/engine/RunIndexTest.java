@@ -0,0 +1,100 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RunIndexTest {
+
+    @Test
+    public void pointLookups_matchSolver() throws Exception {
+        int[][] map = SkiSolverTest.randomMap(new Random(21), 40, 30, 50);
+        Grid grid = Grid.of(map);
+        SkiSolver solver = new SkiSolver(grid);
+        solver.solve();
+        RunIndex index = new RunIndex(solver);
+        for(int x = 0; x < 40; x++)
+            for(int y = 0; y < 30; y++) {
+                int[] expected = SkiSolverTest.exhaustive(map, x, y);
+                assertEquals(expected[0], index.lengthAt(x, y));
+                assertEquals(grid.get(x, y) - expected[1], index.dropAt(x, y));
+                Result run = index.runAt(x, y);
+                assertEquals(index.lengthAt(x, y), run.path.length);
+                assertEquals(grid.get(x, y), run.path[0]);
+            }
+    }
+
+    @Test
+    public void sampleTopRuns_areDistinct() throws Exception {
+        RunIndex index = new RunIndex(new SkiSolver(Grid.of(SkiSolverTest.SAMPLE)));
+        List<Result> top = index.top(3);
+
+        assertEquals(3, top.size());
+        assertArrayEquals(new int[]{9, 5, 3, 2, 1}, top.get(0).path);
+        assertArrayEquals(new int[]{8, 5, 3, 2, 1}, top.get(1).path);
+        // The 5 both of them go through only starts a tail.
+        for(Result run : top)
+            assertFalse(run.startX == 1 && run.startY == 1);
+    }
+
+    @Test
+    public void topRuns_matchSortedRuns() throws Exception {
+        Grid grid = Grid.of(SkiSolverTest.randomMap(new Random(22), 50, 60, 20));
+        final SkiSolver solver = new SkiSolver(grid);
+        solver.solve();
+        RunIndex index = new RunIndex(solver);
+
+        List<Integer> cells = new ArrayList<>();
+        for(int x = 10; x <= 30; x++)
+            for(int y = 5; y <= 44; y++)
+                cells.add(grid.index(x, y));
+        Collections.sort(cells, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return solver.ranksAbove(lhs, rhs) ? -1 : (solver.ranksAbove(rhs, lhs) ? 1 : 0);
+            }
+        });
+
+        List<Result> top = index.top(100, 10, 5, 30, 44);
+        assertEquals(100, top.size());
+        for(int k = 0; k < top.size(); k++) {
+            assertEquals(grid.getX(cells.get(k)), top.get(k).startX);
+            assertEquals(grid.getY(cells.get(k)), top.get(k).startY);
+        }
+        Result best = index.best(10, 5, 30, 44);
+        assertEquals(top.get(0).startX, best.startX);
+        assertEquals(top.get(0).startY, best.startY);
+        assertEquals(21 * 40, index.top(5000, 10, 5, 30, 44).size());
+    }
+
+    @Test
+    public void wholeMapBest_isTheSolverResult() throws Exception {
+        Grid grid = Grid.of(SkiSolverTest.randomMap(new Random(23), 70, 70, 1000));
+        SkiSolver solver = new SkiSolver(grid);
+        Result result = solver.solve();
+        Result best = new RunIndex(solver).top(1).get(0);
+        assertEquals(result.startX, best.startX);
+        assertEquals(result.startY, best.startY);
+        assertArrayEquals(result.path, best.path);
+    }
+
+    @Test
+    public void index_followsIncrementalEdits() throws Exception {
+        IncrementalSkiSolver solver = new IncrementalSkiSolver(Grid.of(SkiSolverTest.SAMPLE));
+        RunIndex index = new RunIndex(solver);
+        solver.updateElevation(2, 2, 0);
+        assertEquals(4, index.lengthAt(1, 2));
+        assertArrayEquals(solver.getResult().path, index.top(1).get(0).path);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void cellOutsideTheMap_isRejected() throws Exception {
+        new RunIndex(new SkiSolver(Grid.of(SkiSolverTest.SAMPLE))).runAt(0, 4);
+    }
+}
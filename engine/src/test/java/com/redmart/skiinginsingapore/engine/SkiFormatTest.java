@@ -0,0 +1,90 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SkiFormatTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("map", ".ski");
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        file.delete();
+    }
+
+    static void assertSameGrid(Grid expected, Grid grid) {
+        assertEquals(expected.getRows(), grid.getRows());
+        assertEquals(expected.getCols(), grid.getCols());
+        for(int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i), grid.get(i));
+    }
+
+    @Test
+    public void textMap_isConverted() throws Exception {
+        SkiFormat.Header header = SkiFormat.convert(
+                new ByteArrayInputStream(MapParserTest.bytes(MapParserTest.SAMPLE)), file);
+
+        assertEquals(4, header.rows);
+        assertEquals(4, header.cols);
+        assertEquals(1, header.min);
+        assertEquals(9, header.max);
+        assertEquals(SkiFormat.HEADER_SIZE + 16 * 4, file.length());
+        assertSameGrid(Grid.of(SkiSolverTest.SAMPLE), SkiFormat.read(file));
+    }
+
+    @Test
+    public void largeMap_isReadAndMapped() throws Exception {
+        Grid grid = Grid.of(SkiSolverTest.randomMap(new Random(3), 700, 900,
+                Integer.MAX_VALUE));
+        grid.set(0, Integer.MIN_VALUE);
+        SkiFormat.write(grid, file);
+
+        assertSameGrid(grid, SkiFormat.read(file));
+        MappedGrid mapped = SkiFormat.map(file, true);
+        assertSameGrid(grid, mapped);
+        assertArrayEquals(new SkiSolver(grid).solve().path, new SkiSolver(mapped).solve().path);
+    }
+
+    @Test
+    public void skiStream_isRecognised() throws Exception {
+        SkiFormat.write(Grid.of(SkiSolverTest.SAMPLE), file);
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            assertTrue(SkiFormat.isSkiFormat(in));
+            assertSameGrid(Grid.of(SkiSolverTest.SAMPLE), SkiFormat.read(in, Grid.HEAP));
+        } finally {
+            in.close();
+        }
+        assertFalse(SkiFormat.isSkiFormat(new BufferedInputStream(
+                new ByteArrayInputStream(MapParserTest.bytes(MapParserTest.SAMPLE)))));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedPayload_isRejected() throws Exception {
+        SkiFormat.write(Grid.of(SkiSolverTest.SAMPLE), file);
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            access.seek(SkiFormat.HEADER_SIZE + 5);
+            access.write(0x7F);
+        } finally {
+            access.close();
+        }
+        SkiFormat.read(file);
+    }
+}
@@ -0,0 +1,132 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SkiRasterTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("raster", ".skr");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void sampleMap_fieldsFollowTheBestRun() throws Exception {
+        SkiSolver solver = new SkiSolver(Grid.of(SkiSolverTest.SAMPLE));
+        Result result = solver.solve();
+        SkiRaster.write(solver, result, file);
+        assertEquals(SkiRaster.HEADER_SIZE + 9 * 16, file.length());
+
+        SkiRaster raster = SkiRaster.open(file);
+        try {
+            assertEquals(4, raster.getRows());
+            assertEquals(4, raster.getCols());
+            assertEquals(5, raster.getBestLength());
+            assertEquals(1, raster.getBestX());
+            assertEquals(2, raster.getBestY());
+            // 9 -> 5 -> 3 -> 2 -> 1: left, down, right, down.
+            assertEquals(5, raster.lengthAt(1, 2));
+            assertEquals(8, raster.dropAt(1, 2));
+            assertEquals(SkiRaster.LEFT, raster.directionAt(1, 2));
+            assertEquals(SkiRaster.DOWN, raster.directionAt(1, 1));
+            assertEquals(SkiRaster.RIGHT, raster.directionAt(2, 1));
+            assertEquals(SkiRaster.DOWN, raster.directionAt(2, 2));
+            assertEquals(1, raster.lengthAt(3, 2));
+            assertEquals(0, raster.dropAt(3, 2));
+            assertEquals(SkiRaster.END, raster.directionAt(3, 2));
+        } finally {
+            raster.close();
+        }
+    }
+
+    @Test
+    public void everyCell_matchesTheSolver_acrossWindows() throws Exception {
+        Random random = new Random(24);
+        for(int[] shape : new int[][]{{37, 53}, {200, 1}, {1, 150}}) {
+            Grid grid = Grid.of(SkiSolverTest.randomMap(random, shape[0], shape[1], 40));
+            SkiSolver solver = new SkiSolver(grid);
+            Result result = solver.solve();
+            // Windows of 100 bytes, so the planes span many of them.
+            SkiRaster.write(solver, result, file, 100);
+
+            SkiRaster raster = SkiRaster.open(file);
+            try {
+                for(int x = 0; x < grid.getRows(); x++) {
+                    for(int y = 0; y < grid.getCols(); y++) {
+                        assertEquals(solver.lengthAt(x, y), raster.lengthAt(x, y));
+                        assertEquals(solver.dropAt(x, y), raster.dropAt(x, y));
+                        // A step goes one cell lower, and the run left is one shorter.
+                        final int length = raster.lengthAt(x, y);
+                        int nx = x;
+                        int ny = y;
+                        switch(raster.directionAt(x, y)) {
+                            case SkiRaster.END:
+                                assertEquals(1, length);
+                                continue;
+                            case SkiRaster.RIGHT:
+                                ny++;
+                                break;
+                            case SkiRaster.LEFT:
+                                ny--;
+                                break;
+                            case SkiRaster.DOWN:
+                                nx++;
+                                break;
+                            default:
+                                assertEquals(SkiRaster.UP, raster.directionAt(x, y));
+                                nx--;
+                        }
+                        assertTrue(grid.get(x, y) > grid.get(nx, ny));
+                        assertEquals(length - 1, raster.lengthAt(nx, ny));
+                    }
+                }
+            } finally {
+                raster.close();
+            }
+        }
+    }
+
+    @Test
+    public void unsettledCells_haveNoRun() throws Exception {
+        SkiSolver solver = new SkiSolver(Grid.of(SkiSolverTest.SAMPLE));
+        solver.offer(0, 1);
+        SkiRaster.write(solver, solver.getResult(), file);
+
+        SkiRaster raster = SkiRaster.open(file);
+        try {
+            assertEquals(5, raster.lengthAt(0, 1));
+            assertEquals(0, raster.lengthAt(1, 2));
+            assertEquals(0, raster.dropAt(1, 2));
+            assertEquals(SkiRaster.END, raster.directionAt(1, 2));
+        } finally {
+            raster.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedRaster_isRejected() throws Exception {
+        SkiSolver solver = new SkiSolver(Grid.of(SkiSolverTest.SAMPLE));
+        SkiRaster.write(solver, solver.solve(), file);
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            access.setLength(file.length() - 1);
+        } finally {
+            access.close();
+        }
+        SkiRaster.open(file);
+    }
+}
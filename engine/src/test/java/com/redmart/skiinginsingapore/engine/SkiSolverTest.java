@@ -0,0 +1,237 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SkiSolverTest {
+
+    static final int[][] SAMPLE = {
+            {4, 8, 7, 3},
+            {2, 5, 9, 3},
+            {6, 3, 2, 5},
+            {4, 4, 1, 6}
+    };
+
+    @Test
+    public void sampleMap_isSolved() throws Exception {
+        Result result = new SkiSolver(Grid.of(SAMPLE)).solve();
+
+        assertEquals(5, result.length);
+        assertEquals(8, result.getDrop());
+        assertEquals(1, result.startX);
+        assertEquals(2, result.startY);
+        assertArrayEquals(new int[]{9, 5, 3, 2, 1}, result.path);
+    }
+
+    @Test
+    public void path_isWrittenWithSeparators() throws Exception {
+        StringWriter out = new StringWriter();
+        new SkiSolver(Grid.of(SAMPLE)).solve().writePath(out, "->");
+        assertEquals("9->5->3->2->1", out.toString());
+
+        out = new StringWriter();
+        new Result(3, 10, Integer.MIN_VALUE, 0, 0, new int[]{10, -7, Integer.MIN_VALUE})
+                .writePath(out, " ");
+        assertEquals("10 -7 -2147483648", out.toString());
+    }
+
+    @Test
+    public void flatMap_hasSingleCellRuns() throws Exception {
+        Result result = new SkiSolver(Grid.of(new int[][]{{7, 7}, {7, 7}})).solve();
+
+        assertEquals(1, result.length);
+        assertEquals(0, result.getDrop());
+        assertArrayEquals(new int[]{7}, result.path);
+    }
+
+    @Test
+    public void randomMaps_matchExhaustiveSearch() throws Exception {
+        Random random = new Random(42);
+        for(int i = 0; i < 200; i++) {
+            int[][] map = randomMap(random, 1 + random.nextInt(7), 1 + random.nextInt(7), 10);
+            SkiSolver solver = new SkiSolver(Grid.of(map));
+            Result result = solver.solve();
+            for(int x = 0; x < map.length; x++)
+                for(int y = 0; y < map[0].length; y++) {
+                    int[] expected = exhaustive(map, x, y);
+                    assertEquals(expected[0], solver.lengthAt(x, y));
+                    assertEquals(map[x][y] - expected[1], solver.dropAt(x, y));
+                }
+            assertEquals(result.length, result.path.length);
+            assertEquals(result.droppingFrom, result.path[0]);
+            assertEquals(result.droppingTo, result.path[result.path.length-1]);
+        }
+    }
+
+    @Test
+    public void serpentineRun_doesNotNeedCallStack() throws Exception {
+        final int rows = 1000;
+        final int cols = 1000;
+        Grid grid = serpentine(rows, cols);
+
+        Result result = new SkiSolver(grid).solve();
+
+        assertEquals(rows * cols, result.length);
+        assertEquals(rows * cols - 1, result.getDrop());
+        assertEquals(0, result.startX);
+        assertEquals(0, result.startY);
+        assertEquals(1, result.path[rows * cols - 1]);
+    }
+
+    @Test
+    public void parallelSolve_matchesSequential() throws Exception {
+        Random random = new Random(7);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for(int bound : new int[]{3, 50, 100000}) {
+                Grid grid = Grid.of(randomMap(random, 300, 300, bound));
+                Result expected = new SkiSolver(grid).solve();
+                Result result = new ParallelSkiSolver(grid, pool).solve();
+
+                assertEquals(expected.length, result.length);
+                assertEquals(expected.getDrop(), result.getDrop());
+                assertEquals(expected.startX, result.startX);
+                assertEquals(expected.startY, result.startY);
+                assertArrayEquals(expected.path, result.path);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void passedDeadline_givesProvisionalResult_andSolvingAgainFinishes() throws Exception {
+        Grid grid = Grid.of(randomMap(new Random(3), 200, 200, 1000));
+        SkiSolver solver = new SkiSolver(grid);
+        solver.setDeadline(0, TimeUnit.NANOSECONDS);
+        Thread.sleep(1);
+
+        assertTrue(solver.solve(ElevationOrder.descending(grid)).provisional);
+
+        solver.clearDeadline();
+        Result result = solver.solve(ElevationOrder.descending(grid));
+        Result expected = new SkiSolver(grid).solve();
+        assertFalse(result.provisional);
+        assertEquals(expected.length, result.length);
+        assertEquals(expected.getDrop(), result.getDrop());
+        assertArrayEquals(expected.path, result.path);
+    }
+
+    @Test
+    public void parallelSolve_outOfTime_givesSettledRun() throws Exception {
+        Grid grid = Grid.of(randomMap(new Random(5), 300, 300, 50));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelSkiSolver solver = new ParallelSkiSolver(grid, pool);
+            solver.setDeadline(0, TimeUnit.NANOSECONDS);
+            Thread.sleep(1);
+            Result result = solver.solve();
+
+            assertTrue(result.provisional);
+            assertEquals(result.length, result.path.length);
+            for(int k = 1; k < result.path.length; k++)
+                assertTrue(result.path[k] < result.path[k - 1]);
+
+            solver.clearDeadline();
+            result = solver.solve();
+            assertFalse(result.provisional);
+            assertArrayEquals(new SkiSolver(grid).solve().path, result.path);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledSolver_stops() throws Exception {
+        SkiSolver solver = new SkiSolver(serpentine(100, 100));
+        solver.cancel();
+        solver.solve();
+    }
+
+    @Test
+    public void interruptedThread_stopsSolve() throws Exception {
+        SkiSolver solver = new SkiSolver(serpentine(100, 100));
+        Thread.currentThread().interrupt();
+        try {
+            solver.solve();
+            fail();
+        } catch(CancellationException e) {
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void mappedGrid_matchesHeapGrid() throws Exception {
+        Grid heap = Grid.of(randomMap(new Random(11), 200, 300, 1000));
+        File directory = File.createTempFile("layers", "");
+        assertTrue(directory.delete() && directory.mkdir());
+        MappedGrid mapped = MappedGrid.create(directory, heap.getRows(), heap.getCols());
+        MappedGrid direct = MappedGrid.allocateDirect(heap.getRows(), heap.getCols());
+        try {
+            for(int i = 0; i < heap.size(); i++) {
+                mapped.set(i, heap.get(i));
+                direct.set(i, heap.get(i));
+            }
+            Result expected = new SkiSolver(heap).solve();
+            SkiSolver solver = new SkiSolver(mapped);
+            Result result = solver.solve();
+            // The map and the solver's three layers.
+            assertEquals(4, directory.listFiles().length);
+            solver.close();
+            assertEquals(1, directory.listFiles().length);
+
+            assertEquals(expected.length, result.length);
+            assertEquals(expected.getDrop(), result.getDrop());
+            assertArrayEquals(expected.path, result.path);
+            assertArrayEquals(expected.path, new SkiSolver(direct).solve().path);
+        } finally {
+            mapped.close();
+            directory.delete();
+        }
+    }
+
+    // One run snaking left to right, then right to left, through every cell of the map.
+    static Grid serpentine(int rows, int cols) {
+        Grid grid = new IntGrid(rows, cols);
+        int value = rows * cols;
+        for(int x = 0; x < rows; x++)
+            for(int k = 0; k < cols; k++)
+                grid.set(x, (x % 2 == 0) ? k : cols - 1 - k, value--);
+        return grid;
+    }
+
+    static int[][] randomMap(Random random, int rows, int cols, int bound) {
+        int[][] map = new int[rows][cols];
+        for(int x = 0; x < rows; x++)
+            for(int y = 0; y < cols; y++)
+                map[x][y] = random.nextInt(bound);
+        return map;
+    }
+
+    // Longest run and its lowest end from (x, y), by walking every downhill branch.
+    static int[] exhaustive(int[][] map, int x, int y) {
+        int[] best = {1, map[x][y]};
+        int[][] moves = {{0, 1}, {0, -1}, {1, 0}, {-1, 0}};
+        for(int[] move : moves) {
+            int nx = x + move[0];
+            int ny = y + move[1];
+            if(nx < 0 || ny < 0 || nx >= map.length || ny >= map[0].length ||
+                    map[nx][ny] >= map[x][y])
+                continue;
+            int[] next = exhaustive(map, nx, ny);
+            if(next[0] + 1 > best[0] || (next[0] + 1 == best[0] && next[1] < best[1]))
+                best = new int[]{next[0] + 1, next[1]};
+        }
+        return best;
+    }
+}
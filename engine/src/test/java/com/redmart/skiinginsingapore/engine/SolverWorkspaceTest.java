@@ -0,0 +1,81 @@
+package com.redmart.skiinginsingapore.engine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class SolverWorkspaceTest {
+
+    @Test
+    public void consecutiveMaps_matchFreshSolves() throws Exception {
+        Random random = new Random(23);
+        SolverWorkspace workspace = new SolverWorkspace();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for(int n = 0; n < 40; n++) {
+                // Growing, shrinking and wide ranges that take the radix sort.
+                final int rows = 1 + random.nextInt(60);
+                final int cols = 1 + random.nextInt(60);
+                Grid grid = Grid.of(SkiSolverTest.randomMap(random, rows, cols,
+                        (n % 3 == 0) ? 1 << 20 : 50));
+                Result expected = new SkiSolver(grid).solve();
+
+                int[] order = ElevationOrder.descending(grid, ElevationHistogram.of(grid),
+                        workspace);
+                assertArrayEquals(ElevationOrder.descending(grid),
+                        Arrays.copyOf(order, grid.size()));
+                SkiSolver solver = (n % 2 == 0) ? new SkiSolver(grid, workspace) :
+                        new ParallelSkiSolver(grid, pool, workspace);
+                assertSameResult(expected, solver.solve(order, grid.size()));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void smallerMaps_reuseTheBuffers() throws Exception {
+        SolverWorkspace workspace = new SolverWorkspace();
+        Grid large = Grid.of(SkiSolverTest.randomMap(new Random(1), 100, 100, 1000));
+        new SkiSolver(large, workspace).solve();
+        final int capacity = workspace.getCapacity();
+        assertEquals(large.size() + large.size() / 8, capacity);
+
+        Grid small = Grid.of(SkiSolverTest.randomMap(new Random(2), 90, 100, 1000));
+        assertSameResult(new SkiSolver(small).solve(), new SkiSolver(small, workspace).solve());
+        assertEquals(capacity, workspace.getCapacity());
+
+        // A little larger than the largest so far leaves room for the next one as well.
+        Grid larger = Grid.of(SkiSolverTest.randomMap(new Random(3), 101, 100, 1000));
+        new SkiSolver(larger, workspace).solve();
+        assertTrue(workspace.getCapacity() > larger.size());
+
+        workspace.release();
+        assertEquals(0, workspace.getCapacity());
+        assertSameResult(new SkiSolver(small).solve(), new SkiSolver(small, workspace).solve());
+    }
+
+    @Test
+    public void longRuns_keepTheGrownStack() throws Exception {
+        SolverWorkspace workspace = new SolverWorkspace();
+        Grid grid = SkiSolverTest.serpentine(60, 60);
+        assertEquals(3600, new SkiSolver(grid, workspace).solve().length);
+        final int[] stack = workspace.stack();
+        assertTrue(stack.length >= 3600);
+        assertEquals(3600, new SkiSolver(grid, workspace).solve().length);
+        assertSame(stack, workspace.stack());
+    }
+
+    private static void assertSameResult(Result expected, Result result) {
+        assertEquals(expected.length, result.length);
+        assertEquals(expected.droppingFrom, result.droppingFrom);
+        assertEquals(expected.droppingTo, result.droppingTo);
+        assertEquals(expected.startX, result.startX);
+        assertEquals(expected.startY, result.startY);
+        assertArrayEquals(expected.path, result.path);
+    }
+}